@@ -0,0 +1,201 @@
+package com.quantisan.JFUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.IIndicators.AppliedPrice;
+
+/**
+ * Fixed capacity ring buffer of the latest bars of one instrument, period
+ * and offer side.  Bars are stored as parallel primitive columns, so
+ * reading them neither boxes nor chases pointers.  Shift 0 is the latest
+ * bar, as with {@link com.dukascopy.api.IHistory#getBar}.
+ *
+ * @author plam
+ *
+ */
+public abstract class BarSeries {
+	static final int OPEN = 0, HIGH = 1, LOW = 2, CLOSE = 3, VOLUME = 4;
+	private static final int COLUMNS = 5;
+
+	private final int capacity;
+	private int head = -1;		// slot of the latest bar
+	private int size;
+
+	BarSeries(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param capacity maximum number of bars kept
+	 * @param isOffHeap true to store the columns in a direct buffer
+	 * outside of the Java heap
+	 * @return an empty series
+	 */
+	static BarSeries create(int capacity, boolean isOffHeap) {
+		return isOffHeap ? new Direct(capacity) : new Heap(capacity);
+	}
+
+	abstract long time(int slot);
+	abstract double value(int column, int slot);
+	abstract void put(int slot, long time, double open, double high,
+						double low, double close, double volume);
+
+	/**
+	 * Append a completed bar, ignored if it is not newer than the latest one
+	 *
+	 * @param bar
+	 */
+	void add(IBar bar) {
+		add(bar.getTime(), bar.getOpen(), bar.getHigh(), bar.getLow(),
+			bar.getClose(), bar.getVolume());
+	}
+
+	void add(long time, double open, double high, double low,
+				double close, double volume) {
+		if (size > 0 && time <= time(head))		return;		// already stored
+		head = (head + 1) % capacity;
+		put(head, time, open, high, low, close, volume);
+		if (size < capacity)	size++;
+	}
+
+	/**
+	 * @return number of bars stored
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return maximum number of bars kept, older bars are overwritten
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param shift number of bars back from the latest, 0 for the latest
+	 * @return start time of the bar
+	 */
+	public long getTime(int shift) {
+		return time(slot(shift));
+	}
+
+	public double getOpen(int shift) {
+		return value(OPEN, slot(shift));
+	}
+
+	public double getHigh(int shift) {
+		return value(HIGH, slot(shift));
+	}
+
+	public double getLow(int shift) {
+		return value(LOW, slot(shift));
+	}
+
+	public double getClose(int shift) {
+		return value(CLOSE, slot(shift));
+	}
+
+	public double getVolume(int shift) {
+		return value(VOLUME, slot(shift));
+	}
+
+	/**
+	 * @param shift number of bars back from the latest, 0 for the latest
+	 * @param ap type of price
+	 * @return price of the bar, see {@link Barer#calcAppliedPrice(IBar, AppliedPrice)}
+	 */
+	public double getPrice(int shift, AppliedPrice ap) {
+		int slot = slot(shift);
+		return Barer.calcAppliedPrice(value(OPEN, slot), value(HIGH, slot),
+						value(LOW, slot), value(CLOSE, slot), ap);
+	}
+
+	/**
+	 * Copy the prices of the latest bars in one sequential pass
+	 *
+	 * @param ap type of price
+	 * @param count number of bars, at most {@link #size()}
+	 * @param dest buffer of at least count length, filled oldest bar first
+	 */
+	public void getPrices(AppliedPrice ap, int count, double[] dest) {
+		if (count > size)
+			throw new IllegalArgumentException("only " + size + " bars stored");
+		if (dest.length < count)
+			throw new IllegalArgumentException("dest is shorter than " + count + " bars");
+		int slot = head - count + 1;
+		if (slot < 0)	slot += capacity;
+		for (int i = 0; i < count; i++) {
+			dest[i] = Barer.calcAppliedPrice(value(OPEN, slot), value(HIGH, slot),
+							value(LOW, slot), value(CLOSE, slot), ap);
+			if (++slot == capacity)		slot = 0;
+		}
+	}
+
+	private int slot(int shift) {
+		if (shift < 0 || shift >= size)
+			throw new IndexOutOfBoundsException("shift " + shift + " of " + size + " bars");
+		int slot = head - shift;
+		return slot < 0 ? slot + capacity : slot;
+	}
+
+	private static final class Heap extends BarSeries {
+		private final long[] times;
+		private final double[][] columns;
+
+		Heap(int capacity) {
+			super(capacity);
+			times = new long[capacity];
+			columns = new double[COLUMNS][capacity];
+		}
+
+		@Override long time(int slot) {	return times[slot]; }
+		@Override double value(int column, int slot) {	return columns[column][slot]; }
+
+		@Override void put(int slot, long time, double open, double high,
+							double low, double close, double volume) {
+			times[slot] = time;
+			columns[OPEN][slot] = open;
+			columns[HIGH][slot] = high;
+			columns[LOW][slot] = low;
+			columns[CLOSE][slot] = close;
+			columns[VOLUME][slot] = volume;
+		}
+	}
+
+	/**
+	 * Columns laid out one after another in a single direct buffer,
+	 * the time column first
+	 */
+	private static final class Direct extends BarSeries {
+		private final ByteBuffer buffer;
+		private final int columnBytes;
+
+		Direct(int capacity) {
+			super(capacity);
+			columnBytes = capacity * 8;
+			buffer = ByteBuffer.allocateDirect(columnBytes * (COLUMNS + 1))
+								.order(ByteOrder.nativeOrder());
+		}
+
+		@Override long time(int slot) {	return buffer.getLong(slot << 3); }
+		@Override double value(int column, int slot) {
+			return buffer.getDouble((column + 1) * columnBytes + (slot << 3));
+		}
+
+		@Override void put(int slot, long time, double open, double high,
+							double low, double close, double volume) {
+			int offset = slot << 3;
+			buffer.putLong(offset, time);
+			buffer.putDouble(columnBytes + offset, open);
+			buffer.putDouble(2 * columnBytes + offset, high);
+			buffer.putDouble(3 * columnBytes + offset, low);
+			buffer.putDouble(4 * columnBytes + offset, close);
+			buffer.putDouble(5 * columnBytes + offset, volume);
+		}
+	}
+}
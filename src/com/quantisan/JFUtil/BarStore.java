@@ -0,0 +1,110 @@
+package com.quantisan.JFUtil;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.OfferSide;
+import com.dukascopy.api.Period;
+
+/**
+ * Latest bars of every instrument, period and offer side seen by the
+ * strategy, kept in primitive {@link BarSeries} so that history reads do
+ * not go through {@link com.dukascopy.api.IHistory}.
+ *
+ * Feed every bar from the strategy:
+ * <pre>
+ * {@code
+ * public void onBar(Instrument instrument, Period period, IBar askBar, IBar bidBar) {
+ *     BarStore.onBar(instrument, period, askBar, bidBar);
+ * }}
+ * </pre>
+ *
+ * Not thread-safe, use from the strategy thread.
+ *
+ * @author plam
+ *
+ */
+public class BarStore {
+	private static final BarStore INSTANCE = new BarStore();
+	private int capacity = 512;
+	private boolean isOffHeap = false;
+	private final Map<Instrument, Map<Period, BarSeries[]>> series =
+		new EnumMap<Instrument, Map<Period, BarSeries[]>>(Instrument.class);
+
+	private BarStore() {};
+
+	/**
+	 * Append the completed ask and bid bars.  Call from onBar.
+	 *
+	 * @param instrument instrument of the bars
+	 * @param period period of the bars
+	 * @param askBar completed ask bar
+	 * @param bidBar completed bid bar
+	 */
+	public static void onBar(Instrument instrument, Period period,
+			IBar askBar, IBar bidBar)
+	{
+		BarSeries[] sides = INSTANCE.getSides(instrument, period, true);
+		sides[OfferSide.ASK.ordinal()].add(askBar);
+		sides[OfferSide.BID.ordinal()].add(bidBar);
+	}
+
+	/**
+	 * @param instrument
+	 * @param period
+	 * @param side
+	 * @return stored bars, null if no bar of the series has been seen yet
+	 */
+	public static BarSeries getSeries(Instrument instrument, Period period, OfferSide side) {
+		BarSeries[] sides = INSTANCE.getSides(instrument, period, false);
+		return (sides == null) ? null : sides[side.ordinal()];
+	}
+
+	/**
+	 * Set the number of bars kept per series, applies to series created
+	 * after this call.  Call in onStart.
+	 *
+	 * @param bars maximum number of bars per instrument, period and side
+	 */
+	public static void setCapacity(int bars) {
+		if (bars < 1)
+			throw new IllegalArgumentException("bars must be at least 1");
+		INSTANCE.capacity = bars;
+	}
+
+	/**
+	 * Keep series created after this call in direct buffers outside of
+	 * the Java heap, e.g. for long histories of many instruments.
+	 *
+	 * @param isOffHeap true for direct buffers, false for arrays (default)
+	 */
+	public static void setOffHeap(boolean isOffHeap) {
+		INSTANCE.isOffHeap = isOffHeap;
+	}
+
+	/**
+	 * Drop all stored bars
+	 */
+	public static void reset() {
+		INSTANCE.series.clear();
+	}
+
+	private BarSeries[] getSides(Instrument instrument, Period period, boolean isCreate) {
+		Map<Period, BarSeries[]> periods = series.get(instrument);
+		if (periods == null) {
+			if (!isCreate)	return null;
+			periods = new EnumMap<Period, BarSeries[]>(Period.class);
+			series.put(instrument, periods);
+		}
+		BarSeries[] sides = periods.get(period);
+		if (sides == null && isCreate) {
+			sides = new BarSeries[OfferSide.values().length];
+			for (int i = 0; i < sides.length; i++)
+				sides[i] = BarSeries.create(capacity, isOffHeap);
+			periods.put(period, sides);
+		}
+		return sides;
+	}
+}
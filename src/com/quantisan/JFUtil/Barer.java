@@ -1,7 +1,16 @@
 package com.quantisan.JFUtil;
 
+import java.util.Arrays;
+import java.util.List;
+
+import com.dukascopy.api.Filter;
 import com.dukascopy.api.IBar;
+import com.dukascopy.api.IHistory;
 import com.dukascopy.api.IIndicators.AppliedPrice;
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.JFException;
+import com.dukascopy.api.OfferSide;
+import com.dukascopy.api.Period;
 
 /**
  * Bar data manipulation utility functions
@@ -20,23 +29,71 @@ public class Barer {
 	 * 			which will return CLOSE instead
 	 */
 	public static double calcAppliedPrice(IBar bar, AppliedPrice ap) {
+		return calcAppliedPrice(bar.getOpen(), bar.getHigh(), bar.getLow(), 
+								bar.getClose(), ap);
+	}
+	
+	/**
+	 * Calculates the AppliedPrice from primitive bar prices
+	 * @param open open price of the bar
+	 * @param high high price of the bar
+	 * @param low low price of the bar
+	 * @param close close price of the bar
+	 * @param ap HIGH, LOW, MEDIAN_PRICE, TYPICAL_PRICE, CLOSE, OPEN, or WEIGHTED_CLOSE
+	 * @return	the corresponding AppliedPrice, except TIMESTAMP and VOLUME, 
+	 * 			which will return CLOSE instead
+	 */
+	public static double calcAppliedPrice(double open, double high, double low,
+											double close, AppliedPrice ap) {
 		double price;
 		switch (ap) {
-			case HIGH: 	price = bar.getHigh();	break;
-			case LOW: 	price = bar.getLow();		break;
+			case HIGH: 	price = high;	break;
+			case LOW: 	price = low;		break;
 			case MEDIAN_PRICE: 
-				price = (bar.getLow() + bar.getHigh()) / 2d;		
+				price = (low + high) / 2d;		
 				break;
 			case TYPICAL_PRICE:
-				price = (bar.getLow() + bar.getHigh() + bar.getClose()) / 3d;		
+				price = (low + high + close) / 3d;		
 				break;
-			case CLOSE:	price = bar.getClose();		break;
-			case OPEN:	price = bar.getOpen();		break;
+			case CLOSE:	price = close;		break;
+			case OPEN:	price = open;		break;
 			case WEIGHTED_CLOSE:
-				price = (bar.getLow() + bar.getHigh() + (bar.getClose() * 2d)) / 4d;		
+				price = (low + high + (close * 2d)) / 4d;		
 				break;	
-			default: price = bar.getClose();	break;
+			default: price = close;	break;
 		}
 		return price;
 	}
+	
+	/**
+	 * Prices of the latest completed bars, read from {@link BarStore} when 
+	 * it holds enough bars and from history otherwise
+	 * @param instrument
+	 * @param period
+	 * @param side
+	 * @param ap type of price
+	 * @param count number of bars
+	 * @return prices, oldest bar first and the latest bar last, NaN for 
+	 * the oldest entries if history has fewer than count bars
+	 * @throws JFException when reading from history fails
+	 */
+	public static double[] getPrices(Instrument instrument, Period period,
+			OfferSide side, AppliedPrice ap, int count) throws JFException {
+		double[] prices = new double[count];
+		BarSeries series = BarStore.getSeries(instrument, period, side);
+		if (series != null && series.size() >= count) {
+			series.getPrices(ap, count, prices);
+			return prices;
+		}
+		
+		IHistory history = JForexContext.getHistory();
+		IBar last = history.getBar(instrument, period, side, 1);
+		List<IBar> bars = history.getBars(instrument, period, side, Filter.NO_FILTER,
+											count, last.getTime(), 0);
+		int missing = Math.max(0, count - bars.size());		// aligned to the latest bar
+		Arrays.fill(prices, 0, missing, Double.NaN);
+		for (int i = missing; i < count; i++)
+			prices[i] = calcAppliedPrice(bars.get(bars.size() - count + i), ap);
+		return prices;
+	}
 }
@@ -0,0 +1,362 @@
+package com.quantisan.JFUtil;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Statistics of an equity curve, updated one sample at a time in fixed
+ * memory: drawdowns, time under water, rolling Sharpe and Sortino ratios
+ * of interval returns, and the curve itself downsampled to a fixed
+ * number of points in the manner of Largest-Triangle-Three-Buckets.
+ *
+ * Samples are added from one thread at a time, usually the strategy
+ * thread.  Readers on any thread get an immutable {@link Snapshot} of
+ * the latest sample.
+ *
+ * @author plam
+ *
+ */
+public class EquityAnalytics {
+	private final long returnInterval;
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>();
+
+	// drawdown
+	private long lastTime = Long.MIN_VALUE;
+	private double lastEquity, peak;
+	private long peakTime;
+	private double maxDrawdown;
+	private long maxDrawdownDuration, timeUnderWater;
+
+	// ring of the latest interval returns and their running sums
+	private final double[] returns;
+	private int returnHead, returnCount;
+	private double returnSum, returnSumSq, downsideSumSq;
+	private long intervalStart;
+	private double intervalEquity;
+
+	// downsampled curve, a new pair of arrays on each compaction so that
+	// snapshots can share the old ones
+	private long[] curveTimes;
+	private double[] curveEquity;
+	private int curveSize;
+	private int bucketSize = 1, bucketCount;
+	private long bucketTimeSum, highTime, lowTime;
+	private double bucketEquitySum, high, low;
+
+	/**
+	 * @param returnInterval length of the intervals returns are measured over
+	 * in milliseconds, e.g. one hour
+	 * @param window number of interval returns in the Sharpe and Sortino ratios
+	 * @param curvePoints maximum number of points of the downsampled curve, at least 4
+	 */
+	public EquityAnalytics(long returnInterval, int window, int curvePoints) {
+		if (returnInterval < 1L)
+			throw new IllegalArgumentException("returnInterval must be positive");
+		if (window < 2)
+			throw new IllegalArgumentException("window must be at least 2");
+		if (curvePoints < 4)
+			throw new IllegalArgumentException("curvePoints must be at least 4");
+		this.returnInterval = returnInterval;
+		returns = new double[window];
+		curveTimes = new long[curvePoints];
+		curveEquity = new double[curvePoints];
+	}
+
+	/**
+	 * Add an equity sample, e.g. from onAccount or from a tick.  Samples
+	 * older than the previous one are taken as of the previous time.
+	 *
+	 * @param time time of the sample in milliseconds
+	 * @param equity account equity at that time
+	 */
+	public synchronized void addSample(long time, double equity) {
+		if (Double.isNaN(equity))	return;
+		if (lastTime == Long.MIN_VALUE) {
+			lastTime = peakTime = intervalStart = time;
+			lastEquity = peak = intervalEquity = equity;
+			curveTimes[0] = time;
+			curveEquity[0] = equity;
+			curveSize = 1;
+			publish();
+			return;
+		}
+		if (time < lastTime)	time = lastTime;
+
+		updateDrawdown(time, equity);
+		updateReturns(time, equity);
+		updateCurve(time, equity);
+		lastTime = time;
+		lastEquity = equity;
+		publish();
+	}
+
+	/**
+	 * @return statistics as of the latest sample, null before the first
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot.get();
+	}
+
+	private void updateDrawdown(long time, double equity) {
+		if (lastEquity < peak)
+			timeUnderWater += time - lastTime;
+		if (equity >= peak) {
+			if (lastEquity < peak)		// recovered
+				maxDrawdownDuration = Math.max(maxDrawdownDuration, time - peakTime);
+			peak = equity;
+			peakTime = time;
+		} else {
+			maxDrawdown = Math.max(maxDrawdown, 1d - equity / peak);
+			maxDrawdownDuration = Math.max(maxDrawdownDuration, time - peakTime);
+		}
+	}
+
+	private void updateReturns(long time, double equity) {
+		if (time - intervalStart < returnInterval)	return;
+		double value = equity / intervalEquity - 1d;
+		intervalStart += (time - intervalStart) / returnInterval * returnInterval;
+		intervalEquity = equity;
+
+		if (returnCount == returns.length) {
+			double old = returns[returnHead];
+			returnSum -= old;
+			returnSumSq -= old * old;
+			if (old < 0d)	downsideSumSq -= old * old;
+		} else {
+			returnCount++;
+		}
+		returns[returnHead] = value;
+		returnSum += value;
+		returnSumSq += value * value;
+		if (value < 0d)		downsideSumSq += value * value;
+		if (++returnHead == returns.length) {
+			returnHead = 0;
+			// sum again once per window so that roundoff does not build up
+			returnSum = returnSumSq = downsideSumSq = 0d;
+			for (int i = 0; i < returnCount; i++) {
+				returnSum += returns[i];
+				returnSumSq += returns[i] * returns[i];
+				if (returns[i] < 0d)	downsideSumSq += returns[i] * returns[i];
+			}
+		}
+	}
+
+	/**
+	 * Reduce every bucket of samples to the one of its highest and lowest
+	 * samples that spans the larger triangle with the previous point and
+	 * the bucket average
+	 */
+	private void updateCurve(long time, double equity) {
+		if (bucketCount == 0 || equity > high) {
+			high = equity;
+			highTime = time;
+		}
+		if (bucketCount == 0 || equity < low) {
+			low = equity;
+			lowTime = time;
+		}
+		bucketTimeSum += time;
+		bucketEquitySum += equity;
+		if (++bucketCount < bucketSize)		return;
+
+		long prevTime = curveTimes[curveSize - 1];
+		double prev = curveEquity[curveSize - 1];
+		double avgTime = (double)bucketTimeSum / bucketCount;
+		double avg = bucketEquitySum / bucketCount;
+		if (area(prevTime, prev, highTime, high, avgTime, avg)
+				>= area(prevTime, prev, lowTime, low, avgTime, avg)) {
+			append(highTime, high);
+		} else {
+			append(lowTime, low);
+		}
+		bucketCount = 0;
+		bucketTimeSum = 0L;
+		bucketEquitySum = 0d;
+	}
+
+	private void append(long time, double equity) {
+		if (curveSize == curveTimes.length)
+			compact();
+		curveTimes[curveSize] = time;
+		curveEquity[curveSize] = equity;
+		curveSize++;
+	}
+
+	/**
+	 * Halve the curve with Largest-Triangle-Three-Buckets into new arrays
+	 * and double the samples per bucket from now on
+	 */
+	private void compact() {
+		final int n = curveSize, m = curveTimes.length / 2;
+		long[] times = new long[curveTimes.length];
+		double[] equity = new double[curveEquity.length];
+		times[0] = curveTimes[0];
+		equity[0] = curveEquity[0];
+		double every = (double)(n - 2) / (m - 2);
+		int a = 0;
+		for (int i = 0; i < m - 2; i++) {
+			int nextStart = (int)((i + 1) * every) + 1;
+			int nextEnd = Math.min((int)((i + 2) * every) + 1, n);
+			double avgTime = 0d, avg = 0d;
+			for (int j = nextStart; j < nextEnd; j++) {
+				avgTime += curveTimes[j];
+				avg += curveEquity[j];
+			}
+			avgTime /= nextEnd - nextStart;
+			avg /= nextEnd - nextStart;
+
+			int chosen = nextStart - 1;
+			double maxArea = -1d;
+			for (int j = (int)(i * every) + 1; j < nextStart; j++) {
+				double area = area(curveTimes[a], curveEquity[a], curveTimes[j],
+									curveEquity[j], avgTime, avg);
+				if (area > maxArea) {
+					maxArea = area;
+					chosen = j;
+				}
+			}
+			times[i + 1] = curveTimes[chosen];
+			equity[i + 1] = curveEquity[chosen];
+			a = chosen;
+		}
+		times[m - 1] = curveTimes[n - 1];
+		equity[m - 1] = curveEquity[n - 1];
+		curveTimes = times;
+		curveEquity = equity;
+		curveSize = m;
+		bucketSize *= 2;
+	}
+
+	private static double area(double t1, double e1, double t2, double e2,
+								double t3, double e3) {
+		return Math.abs((t1 - t3) * (e2 - e1) - (t1 - t2) * (e3 - e1));
+	}
+
+	private void publish() {
+		double sharpe = Double.NaN, sortino = Double.NaN;
+		if (returnCount >= 2) {
+			double mean = returnSum / returnCount;
+			double variance = (returnSumSq - returnCount * mean * mean) / (returnCount - 1);
+			if (variance > 0d)		sharpe = mean / Math.sqrt(variance);
+			if (downsideSumSq > 0d)	sortino = mean / Math.sqrt(downsideSumSq / returnCount);
+		}
+		boolean isUnderWater = lastEquity < peak;
+		snapshot.set(new Snapshot(lastTime, lastEquity, peak, 1d - lastEquity / peak,
+						maxDrawdown, maxDrawdownDuration, isUnderWater ? lastTime - peakTime : 0L,
+						timeUnderWater, sharpe, sortino, curveTimes, curveEquity, curveSize));
+	}
+
+	/**
+	 * Immutable statistics of the curve as of one sample
+	 */
+	public static final class Snapshot {
+		private final long time;
+		private final double equity, peak, drawdown, maxDrawdown;
+		private final long maxDrawdownDuration, drawdownDuration, timeUnderWater;
+		private final double sharpe, sortino;
+		// shared with the writer, which only appends beyond curveSize
+		private final long[] curveTimes;
+		private final double[] curveEquity;
+		private final int curveSize;
+
+		Snapshot(long time, double equity, double peak, double drawdown,
+				double maxDrawdown, long maxDrawdownDuration, long drawdownDuration,
+				long timeUnderWater, double sharpe, double sortino,
+				long[] curveTimes, double[] curveEquity, int curveSize) {
+			this.time = time;
+			this.equity = equity;
+			this.peak = peak;
+			this.drawdown = drawdown;
+			this.maxDrawdown = maxDrawdown;
+			this.maxDrawdownDuration = maxDrawdownDuration;
+			this.drawdownDuration = drawdownDuration;
+			this.timeUnderWater = timeUnderWater;
+			this.sharpe = sharpe;
+			this.sortino = sortino;
+			this.curveTimes = curveTimes;
+			this.curveEquity = curveEquity;
+			this.curveSize = curveSize;
+		}
+
+		public long getTime() {
+			return time;
+		}
+		public double getEquity() {
+			return equity;
+		}
+		/**
+		 * @return highest equity so far
+		 */
+		public double getPeak() {
+			return peak;
+		}
+		/**
+		 * @return current drawdown from the peak, as a fraction
+		 */
+		public double getDrawdown() {
+			return drawdown;
+		}
+		/**
+		 * @return largest drawdown so far, as a fraction
+		 */
+		public double getMaxDrawdown() {
+			return maxDrawdown;
+		}
+		/**
+		 * @return longest time in milliseconds from a peak until it was
+		 * regained, or until now if it has not been yet
+		 */
+		public long getMaxDrawdownDuration() {
+			return maxDrawdownDuration;
+		}
+		/**
+		 * @return time in milliseconds since the peak, 0 at a new peak
+		 */
+		public long getDrawdownDuration() {
+			return drawdownDuration;
+		}
+		/**
+		 * @return total time in milliseconds spent below the peak
+		 */
+		public long getTimeUnderWater() {
+			return timeUnderWater;
+		}
+		/**
+		 * @return mean over standard deviation of the interval returns in
+		 * the window, not annualised, NaN with fewer than two returns
+		 */
+		public double getSharpe() {
+			return sharpe;
+		}
+		/**
+		 * @return mean over downside deviation of the interval returns in
+		 * the window, not annualised, NaN without any losing interval
+		 */
+		public double getSortino() {
+			return sortino;
+		}
+		/**
+		 * @return number of points of the downsampled curve
+		 */
+		public int getCurveSize() {
+			return curveSize;
+		}
+		/**
+		 * @param index point of the downsampled curve, oldest first
+		 */
+		public long getCurveTime(int index) {
+			checkIndex(index);
+			return curveTimes[index];
+		}
+		/**
+		 * @param index point of the downsampled curve, oldest first
+		 */
+		public double getCurveEquity(int index) {
+			checkIndex(index);
+			return curveEquity[index];
+		}
+		private void checkIndex(int index) {
+			if (index < 0 || index >= curveSize)
+				throw new IndexOutOfBoundsException("index " + index + " of " + curveSize + " points");
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package com.quantisan.JFUtil;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dukascopy.api.IOrder;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.Instrument;
+
+/**
+ * Equity between account updates: the last balance plus the profit/loss
+ * of filled positions marked to the latest tick.  Positions are summed
+ * per instrument, so a tick reprices the instrument and those whose 
+ * counter currency converts through it.  Conversions to account currency 
+ * may read history, so they run outside the lock; a per instrument stamp 
+ * drops a conversion that finishes after a newer one.
+ *
+ * @author plam
+ *
+ */
+final class EquityEstimator {
+	// per instrument by ordinal: total units and units times open price
+	private final double[] longUnits, longCost, shortUnits, shortCost;
+	private final double[] bid, ask;
+	private final double[] profitLoss;		// in account currency
+	private final long[] stamps;			// repricings started, by ordinal
+	private final Map<String, Position> positions = new HashMap<String, Position>();
+	private double balance = Double.NaN;
+	private double realized, totalProfitLoss;
+
+	private static final class Position {
+		private final int ordinal;
+		private final boolean isLong;
+		private double units, openPrice;
+
+		Position(int ordinal, boolean isLong) {
+			this.ordinal = ordinal;
+			this.isLong = isLong;
+		}
+	}
+
+	EquityEstimator() {
+		int count = InstrumentInfo.getInstrumentCount();
+		longUnits = new double[count];
+		longCost = new double[count];
+		shortUnits = new double[count];
+		shortCost = new double[count];
+		bid = new double[count];
+		ask = new double[count];
+		profitLoss = new double[count];
+		stamps = new long[count];
+		for (int i = 0; i < count; i++) {
+			bid[i] = Double.NaN;
+			ask[i] = Double.NaN;
+		}
+	}
+
+	/**
+	 * @param balance balance of the latest account update, which includes
+	 * everything realized before it
+	 */
+	synchronized void setBalance(double balance) {
+		this.balance = balance;
+		realized = 0d;
+	}
+
+	/**
+	 * Reprice the positions of the instrument
+	 */
+	void onTick(Instrument instrument, ITick tick) {
+		int i = instrument.ordinal();
+		synchronized (this) {
+			bid[i] = tick.getBid();
+			ask[i] = tick.getAsk();
+		}
+		reprice(i);
+		for (int dependent : Pairer.getDependents(instrument))
+			reprice(dependent);
+	}
+
+	/**
+	 * Follow fills and full or partial closes of an order
+	 */
+	void update(IOrder order) {
+		double units = (order.getState() == IOrder.State.FILLED) ? order.getAmount() * 1e6d : 0d;
+		double closed = 0d;		// in counter currency
+		int ordinal;
+		synchronized (this) {
+			Position position = positions.get(order.getLabel());
+			if (position == null) {
+				if (units == 0d)	return;
+				position = new Position(order.getInstrument().ordinal(), order.isLong());
+				positions.put(order.getLabel(), position);
+			} else if (units < position.units) {
+				// closed part is realized at the latest price, until the next balance
+				closed = getProfitLoss(position) * (position.units - units) / position.units;
+			}
+			add(position, -1d);
+			position.units = units;
+			position.openPrice = order.getOpenPrice();
+			add(position, 1d);
+			if (units == 0d)
+				positions.remove(order.getLabel());
+			ordinal = position.ordinal;
+		}
+		if (closed != 0d) {
+			double value = convert(ordinal, closed);
+			synchronized (this) {
+				realized += value;
+			}
+		}
+		reprice(ordinal);
+	}
+
+	/**
+	 * Rebuild the positions from a full list of orders
+	 */
+	void reset(List<IOrder> orders) {
+		synchronized (this) {
+			positions.clear();
+			for (int i = 0; i < profitLoss.length; i++) {
+				longUnits[i] = longCost[i] = shortUnits[i] = shortCost[i] = 0d;
+				profitLoss[i] = 0d;
+			}
+			totalProfitLoss = 0d;
+			for (IOrder order : orders) {
+				if (order.getState() != IOrder.State.FILLED)	continue;
+				Position position = new Position(order.getInstrument().ordinal(), order.isLong());
+				position.units = order.getAmount() * 1e6d;
+				position.openPrice = order.getOpenPrice();
+				positions.put(order.getLabel(), position);
+				add(position, 1d);
+			}
+		}
+		for (int i = 0; i < profitLoss.length; i++)
+			reprice(i);
+	}
+
+	/**
+	 * @return estimated equity, NaN before the first balance
+	 */
+	synchronized double getEquity() {
+		return balance + realized + totalProfitLoss;
+	}
+
+	private void add(Position position, double sign) {
+		int i = position.ordinal;
+		if (position.isLong) {
+			longUnits[i] += sign * position.units;
+			longCost[i] += sign * position.units * position.openPrice;
+		} else {
+			shortUnits[i] += sign * position.units;
+			shortCost[i] += sign * position.units * position.openPrice;
+		}
+	}
+
+	/**
+	 * Takes the lock only around reading the positions and storing the 
+	 * result, not around the conversion
+	 */
+	private void reprice(int i) {
+		double counter = 0d;
+		long stamp;
+		synchronized (this) {
+			if (longUnits[i] != 0d || shortUnits[i] != 0d) {
+				// longs close at the bid, shorts at the ask
+				counter = (longUnits[i] * bid[i] - longCost[i])
+								+ (shortCost[i] - shortUnits[i] * ask[i]);
+			}
+			stamp = ++stamps[i];
+		}
+		double value = (counter == 0d) ? 0d : convert(i, counter);
+		synchronized (this) {
+			if (stamps[i] != stamp)		return;		// a newer repricing started
+			totalProfitLoss += value - profitLoss[i];
+			profitLoss[i] = value;
+		}
+	}
+
+	/**
+	 * @return profit/loss of the position in counter currency
+	 */
+	private double getProfitLoss(Position position) {
+		int i = position.ordinal;
+		double counter = position.isLong ? position.units * (bid[i] - position.openPrice)
+										: position.units * (position.openPrice - ask[i]);
+		return Double.isNaN(counter) ? 0d : counter;
+	}
+
+	/**
+	 * @return counter currency value of the instrument in account currency, 
+	 * 0 if not convertible yet
+	 */
+	private static double convert(int i, double counter) {
+		if (Double.isNaN(counter))	return 0d;
+		double value = Pairer.convertValueToAccountCurrency(InstrumentInfo.getInstrument(i), counter);
+		return Double.isNaN(value) ? 0d : value;
+	}
+}
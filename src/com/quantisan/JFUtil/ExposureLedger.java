@@ -0,0 +1,93 @@
+package com.quantisan.JFUtil;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dukascopy.api.IOrder;
+import com.dukascopy.api.Instrument;
+
+/**
+ * Running amount at risk of every instrument, in its counter currency.
+ * Each order contributes the value between its open and stop loss price,
+ * which is replaced whenever an event about the order arrives.
+ *
+ * @author plam
+ *
+ */
+final class ExposureLedger {
+	private final double[] exposure = new double[InstrumentInfo.getInstrumentCount()];
+	private final Map<String, Contribution> contributions = new HashMap<String, Contribution>();
+
+	private static final class Contribution {
+		private final int ordinal;
+		private double value;
+
+		Contribution(int ordinal) {
+			this.ordinal = ordinal;
+		}
+	}
+
+	/**
+	 * Replace the contribution of an order by its current state
+	 *
+	 * @param order order of an event, e.g. fill, stop change or close
+	 */
+	synchronized void update(IOrder order) {
+		double value = getValueAtRisk(order);
+		Contribution contribution = contributions.get(order.getLabel());
+		if (contribution == null) {
+			if (value == 0d)	return;
+			contribution = new Contribution(order.getInstrument().ordinal());
+			contributions.put(order.getLabel(), contribution);
+		}
+		exposure[contribution.ordinal] += value - contribution.value;
+		contribution.value = value;
+		if (value == 0d)
+			contributions.remove(order.getLabel());
+	}
+
+	/**
+	 * Rebuild the ledger from a full list of orders, dropping any drift
+	 *
+	 * @param orders all orders of the account
+	 */
+	synchronized void reset(List<IOrder> orders) {
+		contributions.clear();
+		for (int i = 0; i < exposure.length; i++)
+			exposure[i] = 0d;
+		for (IOrder order : orders)
+			update(order);
+	}
+
+	/**
+	 * @param instrument
+	 * @return amount at risk in the counter currency of the instrument
+	 */
+	synchronized double get(Instrument instrument) {
+		return exposure[instrument.ordinal()];
+	}
+
+	/**
+	 * @param out filled with the amount at risk of each instrument by ordinal
+	 */
+	synchronized void copy(double[] out) {
+		System.arraycopy(exposure, 0, out, 0, exposure.length);
+	}
+
+	/**
+	 * @return value between open and stop loss price, 0 if the order is
+	 * closed or has no stop loss
+	 */
+	private static double getValueAtRisk(IOrder order) {
+		IOrder.State state = order.getState();
+		if (state != IOrder.State.FILLED && state != IOrder.State.OPENED
+				&& state != IOrder.State.CREATED)
+			return 0d;
+		double stop = order.getStopLossPrice();
+		if (stop == 0d)		return 0d;
+		double pipsExposed = order.getOpenPrice() - stop;
+		pipsExposed *= order.isLong() ? 1d : -1d;
+		return pipsExposed * order.getAmount() * 1e6d;
+	}
+}
@@ -0,0 +1,61 @@
+package com.quantisan.JFUtil;
+
+import com.dukascopy.api.Instrument;
+
+/**
+ * Fixed point prices and amounts.  Prices are counted in whole tenths of
+ * a pip of their instrument and amounts in whole units of the base
+ * currency, both as longs, so that arithmetic on them is exact.
+ *
+ * @author plam
+ *
+ */
+public class FixedPoint {
+	private FixedPoint() {}
+
+	/**
+	 * units per lot of the JForex API, which counts amounts in millions
+	 */
+	public static final long UNITS_PER_LOT = 1000000L;
+
+	/**
+	 * minimum amount step on JForex in units
+	 */
+	public static final long MIN_UNITS = 1000L;
+
+	/**
+	 * @param instrument instrument of the price
+	 * @param price price as a decimal
+	 * @return price in the nearest whole tenth of a pip
+	 */
+	public static long toTenthPips(Instrument instrument, double price) {
+		return Math.round(price * InstrumentInfo.getTenthPipMultiplier(instrument));
+	}
+
+	/**
+	 * @param instrument instrument of the price
+	 * @param tenthPips price in tenths of a pip
+	 * @return price as a decimal
+	 */
+	public static double toPrice(Instrument instrument, long tenthPips) {
+		return tenthPips / InstrumentInfo.getTenthPipMultiplier(instrument);
+	}
+
+	/**
+	 * @param lot amount in millions
+	 * @return amount in units, truncated to a multiple of {@link #MIN_UNITS}
+	 */
+	public static long toUnits(double lot) {
+		// round off the float error first so 0.003 does not become 2999.99 units
+		long units = Math.round(lot * UNITS_PER_LOT);
+		return units - units % MIN_UNITS;
+	}
+
+	/**
+	 * @param units amount in units
+	 * @return amount in millions, as used by the JForex API
+	 */
+	public static double toLot(long units) {
+		return (double)units / UNITS_PER_LOT;
+	}
+}
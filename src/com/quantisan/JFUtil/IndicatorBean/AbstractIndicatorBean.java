@@ -9,6 +9,60 @@ public abstract class AbstractIndicatorBean {
 	protected Integer[] optParams;
 	protected AppliedPrice[] inputTypeArray;
 	
+	private volatile IndicatorSpec spec;
+	
+	/**
+	 * Snapshot the current parameters into an immutable, interned spec. 
+	 * Repeated calls without changing parameters return the same instance 
+	 * without allocating.
+	 * 
+	 * @return spec of the current parameters
+	 */
+	public IndicatorSpec toSpec() {
+		IndicatorSpec current = spec;
+		if (current == null || !current.matches(this)) {
+			current = IndicatorSpec.of(this);
+			spec = current;
+		}
+		return current;
+	}
+	
+	/**
+	 * @return number of bars consumed before the first output, 
+	 * e.g. slow width + signal width - 2 for MACD
+	 */
+	public int getLookback() {
+		return toSpec().getLookback();
+	}
+	
+	/**
+	 * Calculate the indicator locally over plain price arrays, without 
+	 * going through {@link com.dukascopy.api.IIndicators}.  For research 
+	 * and backtests off the platform.  Results agree with the platform to 
+	 * within {@link Streaming#TOLERANCE} once past the warm-up bars.
+	 * 
+	 * @param open open prices, oldest first
+	 * @param high high prices, oldest first
+	 * @param low low prices, oldest first
+	 * @param close close prices, oldest first
+	 * @return one array per output line in platform output order, aligned 
+	 * with the price arrays and NaN until enough bars are seen
+	 */
+	public double[][] calculate(double[] open, double[] high, double[] low, double[] close) {
+		final int size = close.length;
+		if (open.length != size || high.length != size || low.length != size)
+			throw new IllegalArgumentException("price arrays must have the same length");
+		
+		StreamingIndicator state = StreamingIndicator.create(toSpec());
+		double[][] output = new double[state.getLines()][size];
+		for (int i = 0; i < size; i++) {
+			state.update(open[i], high[i], low[i], close[i]);
+			for (int line = 0; line < output.length; line++)
+				output[line][i] = state.getValue(line);
+		}
+		return output;
+	}
+	
 	protected OfferSide[] getOfferSide() { return offerSides; }
 
 	protected String getFunctionName() { return functionName; }
@@ -0,0 +1,261 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+import com.dukascopy.api.IIndicators;
+
+/**
+ * Moving average of a single input series, updated in constant time
+ * per value.  Outputs follow the TA-Lib conventions used by JForex,
+ * e.g. exponential averages are seeded with the simple average of
+ * their first window.
+ *
+ * @author plam
+ *
+ */
+abstract class Average {
+	/**
+	 * Number of extra widths to feed a recursive average before its
+	 * seed no longer matters, see {@link Streaming#TOLERANCE}
+	 */
+	static final int CONVERGENCE_WIDTHS = 20;
+
+	/**
+	 * @param value next input value
+	 * @return latest average, or NaN while warming up
+	 */
+	abstract double update(double value);
+
+	/**
+	 * @return number of input values consumed before the first output
+	 */
+	abstract int getLookback();
+
+	/**
+	 * @return number of input values to feed before the output is within
+	 * {@link Streaming#TOLERANCE} of a full history calculation
+	 */
+	abstract int getWarmUp();
+
+	/**
+	 * @param type type of moving average
+	 * @param width number of values to average, at least 1
+	 * @return a new moving average in its initial state
+	 */
+	static Average create(IIndicators.MaType type, int width) {
+		if (width < 1)
+			throw new IllegalArgumentException("width must be at least 1");
+		switch (type) {
+			case SMA:	return new Simple(width);
+			case EMA:	return new Exponential(width);
+			case WMA:	return new Weighted(width);
+			case DEMA:	return new DoubleExponential(width);
+			case TEMA:	return new TripleExponential(width);
+			case TRIMA:	return new Triangular(width);
+			case KAMA:	return new Adaptive(width);
+			case T3:	return new TillsonT3(width);
+			default:
+				throw new IllegalArgumentException(type + " is not supported as a streaming average");
+		}
+	}
+
+	static IIndicators.MaType getType(int ordinal) {
+		return IIndicators.MaType.values()[ordinal];
+	}
+
+	private static final class Simple extends Average {
+		private final RollingSum sum;
+
+		Simple(int width) {	sum = new RollingSum(width); }
+
+		@Override double update(double value) {
+			return sum.update(value) / sum.getWidth();
+		}
+		@Override int getLookback() {	return sum.getWidth() - 1; }
+		@Override int getWarmUp() {	return getLookback(); }
+	}
+
+	private static final class Exponential extends Average {
+		private final int width;
+		private final double k;
+		private double sum, ema = Double.NaN;
+		private int count;
+
+		Exponential(int width) {
+			this.width = width;
+			this.k = 2d / (width + 1);
+		}
+
+		@Override double update(double value) {
+			if (count < width) {		// seed with a simple average
+				sum += value;
+				if (++count == width)
+					ema = sum / width;
+			} else {
+				ema += k * (value - ema);
+			}
+			return ema;
+		}
+		@Override int getLookback() {	return width - 1; }
+		@Override int getWarmUp() {	return width - 1 + CONVERGENCE_WIDTHS * width; }
+	}
+
+	private static final class Weighted extends Average {
+		private final RollingSum window;
+		private final double divisor;
+		private double weightedSum, sum;
+		private int count;
+
+		Weighted(int width) {
+			window = new RollingSum(width);
+			divisor = width * (width + 1) / 2d;
+		}
+
+		@Override double update(double value) {
+			final int width = window.getWidth();
+			if (count < width) {
+				weightedSum += ++count * value;
+				sum += value;
+			} else {
+				// every older value loses one weight, the oldest drops out
+				weightedSum += width * value - sum;
+				sum += value - window.get(width - 1);
+			}
+			window.update(value);
+			return count < width ? Double.NaN : weightedSum / divisor;
+		}
+		@Override int getLookback() {	return window.getWidth() - 1; }
+		@Override int getWarmUp() {	return getLookback(); }
+	}
+
+	private static final class DoubleExponential extends Average {
+		private final Average first, second;
+		private final int width;
+
+		DoubleExponential(int width) {
+			this.width = width;
+			first = new Exponential(width);
+			second = new Exponential(width);
+		}
+
+		@Override double update(double value) {
+			double e1 = first.update(value);
+			if (Double.isNaN(e1))	return Double.NaN;
+			double e2 = second.update(e1);
+			return 2d * e1 - e2;
+		}
+		@Override int getLookback() {	return 2 * (width - 1); }
+		@Override int getWarmUp() {	return getLookback() + CONVERGENCE_WIDTHS * width; }
+	}
+
+	private static final class TripleExponential extends Average {
+		private final Average first, second, third;
+		private final int width;
+
+		TripleExponential(int width) {
+			this.width = width;
+			first = new Exponential(width);
+			second = new Exponential(width);
+			third = new Exponential(width);
+		}
+
+		@Override double update(double value) {
+			double e1 = first.update(value);
+			if (Double.isNaN(e1))	return Double.NaN;
+			double e2 = second.update(e1);
+			if (Double.isNaN(e2))	return Double.NaN;
+			double e3 = third.update(e2);
+			return 3d * e1 - 3d * e2 + e3;
+		}
+		@Override int getLookback() {	return 3 * (width - 1); }
+		@Override int getWarmUp() {	return getLookback() + CONVERGENCE_WIDTHS * width; }
+	}
+
+	private static final class Triangular extends Average {
+		private final Average inner, outer;
+		private final int width;
+
+		Triangular(int width) {
+			this.width = width;
+			int half = (width + 1) / 2;
+			// odd widths average twice over the same half, even ones are off by one
+			inner = new Simple(width % 2 == 0 ? half + 1 : half);
+			outer = new Simple(half);
+		}
+
+		@Override double update(double value) {
+			double v = inner.update(value);
+			return Double.isNaN(v) ? Double.NaN : outer.update(v);
+		}
+		@Override int getLookback() {	return width - 1; }
+		@Override int getWarmUp() {	return getLookback(); }
+	}
+
+	/**
+	 * Kaufman adaptive moving average with TA-Lib's fixed 2/30 bar
+	 * fast and slow smoothing constants.
+	 */
+	private static final class Adaptive extends Average {
+		private static final double FAST = 2d / 3d, SLOW = 2d / 31d;
+		private final RollingSum prices, changes;
+		private double kama = Double.NaN;
+		private double lastPrice = Double.NaN;
+
+		Adaptive(int width) {
+			prices = new RollingSum(width + 1);
+			changes = new RollingSum(width);
+		}
+
+		@Override double update(double value) {
+			double noise = Double.NaN;
+			if (!Double.isNaN(lastPrice))
+				noise = changes.update(Math.abs(value - lastPrice));
+			prices.update(value);
+			if (!prices.isReady()) {
+				lastPrice = value;
+				return Double.NaN;
+			}
+			if (Double.isNaN(kama))		// seed with the previous price
+				kama = lastPrice;
+			lastPrice = value;
+
+			double direction = Math.abs(value - prices.get(changes.getWidth()));
+			double efficiency = (noise <= direction || noise == 0d) ? 1d : direction / noise;
+			double constant = efficiency * (FAST - SLOW) + SLOW;
+			kama += constant * constant * (value - kama);
+			return kama;
+		}
+		@Override int getLookback() {	return changes.getWidth(); }
+		@Override int getWarmUp() {	return getLookback() + CONVERGENCE_WIDTHS * changes.getWidth(); }
+	}
+
+	/**
+	 * Tillson T3 with TA-Lib's default volume factor of 0.7
+	 */
+	private static final class TillsonT3 extends Average {
+		private static final double V = 0.7d;
+		private static final double C1 = -V * V * V;
+		private static final double C2 = 3d * V * V + 3d * V * V * V;
+		private static final double C3 = -6d * V * V - 3d * V - 3d * V * V * V;
+		private static final double C4 = 1d + 3d * V + V * V * V + 3d * V * V;
+		private final Average[] emas = new Average[6];
+		private final double[] e = new double[6];
+		private final int width;
+
+		TillsonT3(int width) {
+			this.width = width;
+			for (int i = 0; i < emas.length; i++)
+				emas[i] = new Exponential(width);
+		}
+
+		@Override double update(double value) {
+			double v = value;
+			for (int i = 0; i < emas.length; i++) {
+				v = emas[i].update(v);
+				if (Double.isNaN(v))	return Double.NaN;
+				e[i] = v;
+			}
+			return C1 * e[5] + C2 * e[4] + C3 * e[3] + C4 * e[2];
+		}
+		@Override int getLookback() {	return 6 * (width - 1); }
+		@Override int getWarmUp() {	return getLookback() + CONVERGENCE_WIDTHS * width; }
+	}
+}
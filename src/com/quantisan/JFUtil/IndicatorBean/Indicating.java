@@ -1,8 +1,25 @@
 package com.quantisan.JFUtil.IndicatorBean;
 
 import java.io.File;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import com.dukascopy.api.Filter;
 import com.dukascopy.api.IBar;
@@ -20,14 +37,40 @@ import com.quantisan.JFUtil.JForexContext;
 import com.quantisan.JFUtil.Printer;
 
 /**
- * Accessing technical analysis indicators
+ * Accessing technical analysis indicators.  The static methods are 
+ * safe to call from several threads, e.g. through {@link IndicatorScanner}.
  * 
  */
 public class Indicating {
 	private static final Indicating INSTANCE = new Indicating();
-	private Filter filter = Filter.NO_FILTER;
-	private Set<String> singleArrayOutputs = new HashSet<String>();
-	private Set<String> multiArrayOutputs = new HashSet<String>();
+	private volatile Filter filter = Filter.NO_FILTER;
+	private final Set<String> singleArrayOutputs = 
+		Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Set<String> multiArrayOutputs = 
+		Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	// time of the latest tick of each instrument by ordinal, 0 until fed
+	private final AtomicLongArray tickTimes = new AtomicLongArray(Instrument.values().length);
+	// cache, counters and reference bars are guarded by the cache lock
+	private int cacheSize = 256;
+	private long cacheHits, cacheMisses;
+	private final Map<Instrument, Map<Period, long[]>> referenceBars = 
+		new EnumMap<Instrument, Map<Period, long[]>>(Instrument.class);
+	private final ThreadLocal<CacheKey> probe = new ThreadLocal<CacheKey>() {
+			@Override protected CacheKey initialValue() {
+				return new CacheKey();
+			}
+		};
+	private final LinkedHashMap<CacheKey, Object[]> cache = 
+		new LinkedHashMap<CacheKey, Object[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override protected boolean removeEldestEntry(Map.Entry<CacheKey, Object[]> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	// indicators to prefetch, guarded by itself
+	private final Map<Instrument, Map<Period, Set<IndicatorSpec>>> registered = 
+		new EnumMap<Instrument, Map<Period, Set<IndicatorSpec>>>(Instrument.class);
 	
 	private Indicating() {
 		singleArrayOutputs.add("ATR");
@@ -61,6 +104,17 @@ public class Indicating {
 		INSTANCE.multiArrayOutputs.add(functionName);
 	}
 	
+	/**
+	 * Results are cached until the next bar completes, so repeated calls with 
+	 * the same parameters within a bar do not recalculate the indicator.
+	 * 
+	 * @param instrument
+	 * @param period
+	 * @param indicatorBean indicator returning a 1-dimensional array
+	 * @param dataPoints number of data points to get
+	 * @return indicator values up to the last completed bar
+	 * @throws JFException
+	 */
 	public static double[] calculate(Instrument instrument, Period period,
 			AbstractIndicatorBean indicatorBean, int dataPoints) throws JFException
 	{
@@ -71,19 +125,9 @@ public class Indicating {
 											+ " does not return a 1-dimensional array");
 		}
 		
-		IBar bar = JForexContext.getHistory().getBar(instrument, period, OfferSide.BID, 1);
-		Object[] objs = JForexContext.getIndicators()
-							.calculateIndicator(instrument, 
-												period, 
-												indicatorBean.getOfferSide(), 
-												indicatorBean.getFunctionName(),  
-												indicatorBean.getInputTypes(), 
-												indicatorBean.getParams(),
-												getFilter(),
-												dataPoints,
-												bar.getTime(),
-												0);
-		return (double[])objs[0];
+		Object[] objs = INSTANCE.getCachedIndicator(instrument, period, 
+													indicatorBean, dataPoints);
+		return ((double[])objs[0]).clone();
 	}
 	
 	public static double calculate(Instrument instrument, Period period,
@@ -111,26 +155,455 @@ public class Indicating {
 											+ " does not return a 2-dimensional array");
 		}
 		
-		IBar bar = JForexContext.getHistory().getBar(instrument, period, OfferSide.BID, 1);
-		Object[] objs = JForexContext.getIndicators()
+		Object[] objs = INSTANCE.getCachedIndicator(instrument, period, 
+													indicatorBean, dataPoints);
+		Object[] output = new Object[objs.length];
+		for (int i = 0; i < objs.length; i++)
+			output[i] = ((double[])objs[i]).clone();
+		return output;
+//		double[][] output = new double[2][];
+//		output[0] = (double[])objs[0];
+//		output[1] = (double[])objs[1];
+//		return output;
+	}
+	
+	
+	
+	/**
+	 * Calculate a 1-dimensional indicator into a caller-owned buffer.  
+	 * Repeated calls within the same bar are answered from the cache 
+	 * without allocating.
+	 * 
+	 * @param instrument
+	 * @param period
+	 * @param indicatorBean indicator returning a 1-dimensional array
+	 * @param dataPoints number of data points to get
+	 * @param dest buffer of at least dataPoints length, oldest value first
+	 * @throws JFException
+	 */
+	public static void calculateInto(Instrument instrument, Period period,
+			AbstractIndicatorBean indicatorBean, int dataPoints, double[] dest) throws JFException
+	{
+		if (!INSTANCE.singleArrayOutputs.contains(indicatorBean.getFunctionName())) 
+		{
+			throw new IllegalArgumentException(indicatorBean.getFunctionName() 
+											+ " does not return a 1-dimensional array");
+		}
+		if (dest.length < dataPoints)
+			throw new IllegalArgumentException("dest is shorter than " + dataPoints + " data points");
+		
+		Object[] objs = INSTANCE.getCachedIndicator(instrument, period, 
+													indicatorBean, dataPoints);
+		double[] values = (double[])objs[0];
+		System.arraycopy(values, 0, dest, 0, values.length);
+	}
+	
+	/**
+	 * Calculate a multi-line indicator into a caller-owned typed output, 
+	 * e.g. {@link StochasticOutput} or {@link MACDOutput}.  Repeated calls 
+	 * within the same bar are answered from the cache without allocating.
+	 * 
+	 * @param instrument
+	 * @param period
+	 * @param indicatorBean indicator returning a N-dimensional array
+	 * @param dataPoints number of data points to get
+	 * @param dest output with one line per indicator output and 
+	 * a capacity of at least dataPoints
+	 * @throws JFException
+	 */
+	public static void calculateInto(Instrument instrument, Period period,
+			AbstractIndicatorBean indicatorBean, int dataPoints, MultiLineOutput dest) 
+			throws JFException
+	{
+		if (!INSTANCE.multiArrayOutputs.contains(indicatorBean.getFunctionName())) 
+		{
+			throw new IllegalArgumentException(indicatorBean.getFunctionName() 
+											+ " does not return a 2-dimensional array");
+		}
+		
+		Object[] objs = INSTANCE.getCachedIndicator(instrument, period, 
+													indicatorBean, dataPoints);
+		if (objs.length != dest.getLines())
+			throw new IllegalArgumentException(indicatorBean.getFunctionName() + " has " 
+								+ objs.length + " output lines, dest has " + dest.getLines());
+		double[] values = (double[])objs[0];
+		dest.setSize(values.length);
+		for (int i = 0; i < objs.length; i++) {
+			values = (double[])objs[i];
+			System.arraycopy(values, 0, dest.getLine(i), 0, values.length);
+		}
+	}
+	
+	/**
+	 * Calculate a list of indicators on the same instrument and period.  
+	 * The last completed bar is resolved once for the whole list.
+	 * 
+	 * @param instrument
+	 * @param period
+	 * @param indicatorBeans indicators to calculate, of any output dimension
+	 * @param dataPoints number of data points to get for each indicator
+	 * @return results in the same order as indicatorBeans
+	 * @throws JFException
+	 */
+	public static IndicatorResults calculateAll(Instrument instrument, Period period,
+			List<? extends AbstractIndicatorBean> indicatorBeans, int dataPoints) throws JFException
+	{
+		long barTime = INSTANCE.getReferenceTime(instrument, period);
+		Object[][] outputs = new Object[indicatorBeans.size()][];
+		for (int i = 0; i < outputs.length; i++) {
+			outputs[i] = INSTANCE.getCachedIndicator(instrument, period, 
+								indicatorBeans.get(i), dataPoints, barTime);
+		}
+		return new IndicatorResults(instrument, period, barTime, indicatorBeans, outputs);
+	}
+	
+	/**
+	 * Calculate a list of indicators on several instruments of the same period.
+	 * 
+	 * @param instruments
+	 * @param period
+	 * @param indicatorBeans indicators to calculate, of any output dimension
+	 * @param dataPoints number of data points to get for each indicator
+	 * @return results of each instrument, in iteration order of instruments
+	 * @throws JFException
+	 * @see #calculateAll(Instrument, Period, List, int)
+	 */
+	public static Map<Instrument, IndicatorResults> calculateAll(Collection<Instrument> instruments, 
+			Period period, List<? extends AbstractIndicatorBean> indicatorBeans, int dataPoints) 
+			throws JFException
+	{
+		Map<Instrument, IndicatorResults> results = new LinkedHashMap<Instrument, IndicatorResults>();
+		for (Instrument instrument : instruments)
+			results.put(instrument, calculateAll(instrument, period, indicatorBeans, dataPoints));
+		return results;
+	}
+	
+	/**
+	 * Record the time of the latest tick, call from onTick.  Cached results 
+	 * of the bar being formed are then returned without asking history 
+	 * for the time of the last tick.
+	 * 
+	 * @param instrument instrument of the tick
+	 * @param tick the latest tick
+	 */
+	public static void onTick(Instrument instrument, ITick tick) {
+		INSTANCE.tickTimes.set(instrument.ordinal(), tick.getTime());
+	}
+	
+	private Object[] getCachedIndicator(Instrument instrument, Period period,
+			AbstractIndicatorBean indicatorBean, int dataPoints) throws JFException
+	{
+		return getCachedIndicator(instrument, period, indicatorBean, dataPoints,
+									getReferenceTime(instrument, period));
+	}
+	
+	private Object[] getCachedIndicator(Instrument instrument, Period period,
+			AbstractIndicatorBean indicatorBean, int dataPoints, long barTime) 
+			throws JFException
+	{
+		IndicatorSpec spec = indicatorBean.toSpec();
+		Filter currentFilter = getFilter();
+		CacheKey key = probe.get();
+		key.set(instrument, period, spec, currentFilter, dataPoints, barTime);
+		Object[] objs;
+		synchronized (cache) {
+			objs = cache.get(key);
+			if (objs != null) {
+				cacheHits++;
+				return objs;
+			}
+			cacheMisses++;
+		}
+		// calculate outside of the lock so other threads are not held up
+		objs = JForexContext.getIndicators()
 							.calculateIndicator(instrument, 
 												period, 
-												indicatorBean.getOfferSide(), 
-												indicatorBean.getFunctionName(),  
-												indicatorBean.getInputTypes(), 
-												indicatorBean.getParams(),
-												getFilter(),
+												spec.getOfferSide(), 
+												spec.getFunctionName(),  
+												spec.getInputTypes(), 
+												spec.getParams(),
+												currentFilter,
 												dataPoints,
-												bar.getTime(),
+												barTime,
 												0);
+		synchronized (cache) {
+			cache.put(key.copy(), objs);
+		}
 		return objs;
-//		double[][] output = new double[2][];
-//		output[0] = (double[])objs[0];
-//		output[1] = (double[])objs[1];
-//		return output;
 	}
 	
+	/**
+	 * Time of the last completed bid bar.  While the latest tick is within 
+	 * the bar being formed, the bar is answered from the cached bounds of 
+	 * that bar, without any history call if {@link #onTick(Instrument, ITick)} 
+	 * is fed.  Once a tick falls into a new bar, the bar is looked up again 
+	 * and cached results of the previous bar are dropped.
+	 */
+	private long getReferenceTime(Instrument instrument, Period period) throws JFException {
+		long now = tickTimes.get(instrument.ordinal());
+		IHistory history = JForexContext.getHistory();
+		if (now == 0L)
+			now = history.getTimeOfLastTick(instrument);
+		synchronized (cache) {
+			long[] reference = getReference(instrument, period);
+			if (now >= reference[0] && now < reference[2])
+				return reference[1];
+		}
+		
+		long barStart = history.getBarStart(period, now);
+		// next bar start, the same as barStart where bars vary in length 
+		// so that those are always looked up
+		long barEnd = history.getBarStart(period, barStart + period.getInterval());
+		IBar bar = history.getBar(instrument, period, OfferSide.BID, 1);
+		synchronized (cache) {
+			long[] reference = getReference(instrument, period);
+			if (reference[0] != barStart || reference[1] != bar.getTime())
+				expire(instrument, period, bar.getTime());
+			reference[0] = barStart;
+			reference[1] = bar.getTime();
+			reference[2] = barEnd;
+		}
+		return bar.getTime();
+	}
+	
+	/**
+	 * @return start of the bar being formed, completed bar time and start 
+	 * of the next bar of the series, must hold the cache lock
+	 */
+	private long[] getReference(Instrument instrument, Period period) {
+		Map<Period, long[]> periods = referenceBars.get(instrument);
+		if (periods == null) {
+			periods = new EnumMap<Period, long[]>(Period.class);
+			referenceBars.put(instrument, periods);
+		}
+		long[] reference = periods.get(period);
+		if (reference == null) {
+			reference = new long[] {Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE};
+			periods.put(period, reference);
+		}
+		return reference;
+	}
 	
+	private void expire(Instrument instrument, Period period, long barTime) {
+		Iterator<CacheKey> iter = cache.keySet().iterator();
+		while (iter.hasNext()) {
+			CacheKey key = iter.next();
+			if (key.instrument == instrument && key.period == period 
+					&& key.barTime != barTime)
+				iter.remove();
+		}
+	}
+	
+	/**
+	 * Set the maximum number of indicator results kept in the cache.
+	 * 
+	 * @param size maximum number of cached results, 0 to disable caching
+	 */
+	public static void setCacheSize(int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("size must be non-negative");
+		synchronized (INSTANCE.cache) {
+			INSTANCE.cacheSize = size;
+			INSTANCE.clearCache();
+		}
+	}
+	
+	/**
+	 * Drop all cached indicator results and reset the counters
+	 */
+	public static void resetCache() {
+		synchronized (INSTANCE.cache) {
+			INSTANCE.clearCache();
+			INSTANCE.cacheHits = 0;
+			INSTANCE.cacheMisses = 0;
+		}
+	}
+	
+	private void clearCache() {
+		cache.clear();
+		referenceBars.clear();
+	}
+	
+	/**
+	 * @return number of calculations answered from the cache
+	 */
+	public static long getCacheHits() {
+		synchronized (INSTANCE.cache) {
+			return INSTANCE.cacheHits;
+		}
+	}
+	
+	/**
+	 * @return number of calculations passed on to the platform
+	 */
+	public static long getCacheMisses() {
+		synchronized (INSTANCE.cache) {
+			return INSTANCE.cacheMisses;
+		}
+	}
+	
+	/**
+	 * Register an indicator to be warmed up by {@link #prefetch()}.  
+	 * Call in onStart for every indicator streamed by the strategy.
+	 * 
+	 * @param instrument
+	 * @param period
+	 * @param indicatorBean indicator with a local implementation, see 
+	 * {@link AbstractIndicatorBean#getLookback()}
+	 */
+	public static void registerIndicator(Instrument instrument, Period period,
+			AbstractIndicatorBean indicatorBean)
+	{
+		IndicatorSpec spec = indicatorBean.toSpec();
+		spec.getWarmUp();		// fail here for indicators without a local implementation
+		synchronized (INSTANCE.registered) {
+			Map<Period, Set<IndicatorSpec>> periods = INSTANCE.registered.get(instrument);
+			if (periods == null) {
+				periods = new EnumMap<Period, Set<IndicatorSpec>>(Period.class);
+				INSTANCE.registered.put(instrument, periods);
+			}
+			Set<IndicatorSpec> specs = periods.get(period);
+			if (specs == null) {
+				specs = new LinkedHashSet<IndicatorSpec>();
+				periods.put(period, specs);
+			}
+			specs.add(spec);
+		}
+	}
+	
+	/**
+	 * @param instrument
+	 * @param period
+	 * @return number of bars needed to warm up every indicator registered 
+	 * on the instrument and period, 0 if there are none
+	 */
+	public static int getRequiredBars(Instrument instrument, Period period) {
+		synchronized (INSTANCE.registered) {
+			Map<Period, Set<IndicatorSpec>> periods = INSTANCE.registered.get(instrument);
+			Set<IndicatorSpec> specs = (periods == null) ? null : periods.get(period);
+			if (specs == null)	return 0;
+			int bars = 0;
+			for (IndicatorSpec spec : specs)
+				bars = Math.max(bars, spec.getWarmUp() + 1);
+			return bars;
+		}
+	}
+	
+	/**
+	 * Fetch the history of all registered indicators with one bulk request 
+	 * per instrument, period and offer side, then warm up their 
+	 * {@link Streaming} state from it.  Instruments are fetched concurrently.
+	 * Call once in onStart, after {@link #registerIndicator(Instrument, Period, AbstractIndicatorBean)}.
+	 * 
+	 * @throws JFException if any history request fails
+	 */
+	public static void prefetch() throws JFException {
+		final Map<Instrument, List<PrefetchSeries>> plan = INSTANCE.getPrefetchPlan();
+		if (plan.isEmpty())		return;
+		
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(plan.size());
+		for (final Instrument instrument : plan.keySet()) {
+			tasks.add(new Callable<Void>() {
+				@Override public Void call() throws JFException {
+					for (PrefetchSeries series : plan.get(instrument))
+						series.fetch();
+					return null;
+				}
+			});
+		}
+		
+		int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Indicating-prefetch-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			for (Future<Void> future : pool.invokeAll(tasks))
+				future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Prefetch interrupted", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof JFException)
+				throw (JFException)ex.getCause();
+			throw new IllegalStateException("Prefetch failed", ex.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		
+		// feed the streaming state once every fetch is done
+		for (List<PrefetchSeries> list : plan.values()) {
+			for (PrefetchSeries series : list) {
+				for (IndicatorSpec spec : series.specs)
+					Streaming.warmUp(series.instrument, series.period, spec, series.bars);
+			}
+		}
+	}
+	
+	/**
+	 * @return registered indicators grouped into one series per 
+	 * instrument, period and offer side
+	 */
+	private Map<Instrument, List<PrefetchSeries>> getPrefetchPlan() {
+		Map<Instrument, List<PrefetchSeries>> plan = 
+			new EnumMap<Instrument, List<PrefetchSeries>>(Instrument.class);
+		synchronized (registered) {
+			for (Map.Entry<Instrument, Map<Period, Set<IndicatorSpec>>> byInstrument : registered.entrySet()) {
+				List<PrefetchSeries> list = new ArrayList<PrefetchSeries>();
+				for (Map.Entry<Period, Set<IndicatorSpec>> byPeriod : byInstrument.getValue().entrySet()) {
+					Map<OfferSide, PrefetchSeries> bySide = 
+						new EnumMap<OfferSide, PrefetchSeries>(OfferSide.class);
+					for (IndicatorSpec spec : byPeriod.getValue()) {
+						OfferSide side = spec.getOfferSide()[0];
+						PrefetchSeries series = bySide.get(side);
+						if (series == null) {
+							series = new PrefetchSeries(byInstrument.getKey(), byPeriod.getKey(), side);
+							bySide.put(side, series);
+							list.add(series);
+						}
+						series.add(spec);
+					}
+				}
+				if (!list.isEmpty())
+					plan.put(byInstrument.getKey(), list);
+			}
+		}
+		return plan;
+	}
+	
+	/**
+	 * Bars of one instrument, period and offer side shared by the 
+	 * indicators warmed up from them
+	 */
+	private static class PrefetchSeries {
+		private final Instrument instrument;
+		private final Period period;
+		private final OfferSide side;
+		private final List<IndicatorSpec> specs = new ArrayList<IndicatorSpec>();
+		private int barCount;
+		private List<IBar> bars;
+		
+		PrefetchSeries(Instrument instrument, Period period, OfferSide side) {
+			this.instrument = instrument;
+			this.period = period;
+			this.side = side;
+		}
+		
+		void add(IndicatorSpec spec) {
+			specs.add(spec);
+			barCount = Math.max(barCount, spec.getWarmUp() + 1);
+		}
+		
+		void fetch() throws JFException {
+			long barTime = INSTANCE.getReferenceTime(instrument, period);
+			bars = JForexContext.getHistory().getBars(instrument, period, side, 
+										getFilter(), barCount, barTime, 0);
+		}
+	}
 	
 	/**
 	 * Register a custom indicator in the system before using it. Preferably
@@ -399,4 +872,54 @@ public class Indicating {
 	@Deprecated public OfferSide getOfferSide() {
 		return offerSide;
 	}
+
+	/**
+	 * Everything that determines the result of a calculation.  Keys stored 
+	 * in the cache are never changed, only the lookup probe is reset 
+	 * on each call so that cache hits do not allocate.
+	 */
+	private static class CacheKey {
+		private Instrument instrument;
+		private Period period;
+		private IndicatorSpec spec;
+		private Filter filter;
+		private int dataPoints;
+		private long barTime;
+		private int hash;
+		
+		void set(Instrument instrument, Period period, IndicatorSpec spec,
+				Filter filter, int dataPoints, long barTime) {
+			this.instrument = instrument;
+			this.period = period;
+			this.spec = spec;
+			this.filter = filter;
+			this.dataPoints = dataPoints;
+			this.barTime = barTime;
+			int h = 31 * instrument.hashCode() + period.hashCode();
+			h = 31 * h + spec.hashCode();
+			h = 31 * h + filter.hashCode();
+			h = 31 * h + dataPoints;
+			this.hash = 31 * h + (int)(barTime ^ (barTime >>> 32));
+		}
+		
+		CacheKey copy() {
+			CacheKey key = new CacheKey();
+			key.set(instrument, period, spec, filter, dataPoints, barTime);
+			return key;
+		}
+		
+		@Override public int hashCode() {
+			return hash;
+		}
+		
+		@Override public boolean equals(Object obj) {
+			if (!(obj instanceof CacheKey))	return false;
+			CacheKey other = (CacheKey)obj;
+			// interned specs compare by identity
+			return hash == other.hash && barTime == other.barTime 
+				&& spec == other.spec
+				&& instrument == other.instrument && period == other.period
+				&& dataPoints == other.dataPoints && filter == other.filter;
+		}
+	}
 }
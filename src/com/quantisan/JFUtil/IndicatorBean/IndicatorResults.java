@@ -0,0 +1,113 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.Period;
+
+/**
+ * Results of calculating a list of indicators on one instrument and period,
+ * as returned by {@link Indicating#calculateAll(Instrument, Period, List, int)}.
+ * 
+ * Example use:
+ * <pre>
+ * {@code 
+ * IndicatorResults results = Indicating.calculateAll(instrument, period, beans, 1);
+ * double atr = results.getLatest(0);			// first bean, e.g. ATR
+ * double[] macdSignal = results.get(1, 1);	// second bean, e.g. MACD signal line}
+ * </pre>
+ * 
+ * @author plam
+ *
+ */
+public class IndicatorResults {
+	private final Instrument instrument;
+	private final Period period;
+	private final long barTime;
+	private final List<AbstractIndicatorBean> indicatorBeans;
+	private final Object[][] outputs;
+	
+	IndicatorResults(Instrument instrument, Period period, long barTime,
+			List<? extends AbstractIndicatorBean> indicatorBeans, Object[][] outputs) {
+		this.instrument = instrument;
+		this.period = period;
+		this.barTime = barTime;
+		this.indicatorBeans = Collections.unmodifiableList(
+								new ArrayList<AbstractIndicatorBean>(indicatorBeans));
+		this.outputs = outputs;
+	}
+	
+	/**
+	 * @return number of indicators calculated
+	 */
+	public int size() {
+		return outputs.length;
+	}
+	
+	/**
+	 * @param index position of the bean in the calculated list
+	 * @return values of the first output line
+	 */
+	public double[] get(int index) {
+		return get(index, 0);
+	}
+	
+	/**
+	 * @param index position of the bean in the calculated list
+	 * @param line output line of the indicator, e.g. 1 for the MACD signal
+	 * @return values of the output line
+	 */
+	public double[] get(int index, int line) {
+		return ((double[])outputs[index][line]).clone();
+	}
+	
+	/**
+	 * @param index position of the bean in the calculated list
+	 * @return value of the first output line at the last completed bar
+	 */
+	public double getLatest(int index) {
+		return getLatest(index, 0);
+	}
+	
+	/**
+	 * @param index position of the bean in the calculated list
+	 * @param line output line of the indicator
+	 * @return value of the output line at the last completed bar
+	 */
+	public double getLatest(int index, int line) {
+		double[] values = (double[])outputs[index][line];
+		return values[values.length - 1];
+	}
+	
+	/**
+	 * @param index position of the bean in the calculated list
+	 * @return number of output lines of the indicator
+	 */
+	public int getLines(int index) {
+		return outputs[index].length;
+	}
+	
+	/**
+	 * @return the indicator beans, in calculated order
+	 */
+	public List<AbstractIndicatorBean> getIndicatorBeans() {
+		return indicatorBeans;
+	}
+	
+	public Instrument getInstrument() {
+		return instrument;
+	}
+	
+	public Period getPeriod() {
+		return period;
+	}
+	
+	/**
+	 * @return time of the last completed bar the indicators were calculated at
+	 */
+	public long getBarTime() {
+		return barTime;
+	}
+}
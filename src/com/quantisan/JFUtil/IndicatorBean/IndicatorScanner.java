@@ -0,0 +1,112 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.JFException;
+import com.dukascopy.api.Period;
+
+/**
+ * Evaluates a list of indicators on every combination of instruments 
+ * and periods concurrently.  Each instrument and period is calculated 
+ * with {@link Indicating#calculateAll(Instrument, Period, List, int)} 
+ * on a bounded pool of worker threads.
+ * 
+ * Example use:
+ * <pre>
+ * {@code 
+ * IndicatorScanner scanner = new IndicatorScanner();	// once, in onStart
+ * ScanResult result = scanner.scan(instruments, periods, beans);
+ * double atr = result.get(Instrument.EURUSD, Period.ONE_HOUR, 0);
+ * scanner.shutdown();		// in onStop}
+ * </pre>
+ * 
+ * @author plam
+ *
+ */
+public class IndicatorScanner {
+	private final ExecutorService pool;
+	
+	/**
+	 * Scanner with one worker thread per available processor
+	 */
+	public IndicatorScanner() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * @param threads maximum number of indicators calculated at the same time
+	 */
+	public IndicatorScanner(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be at least 1");
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "IndicatorScanner-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Calculate the latest value of every indicator on every instrument 
+	 * and period, blocking until all are done.
+	 * 
+	 * @param instruments instruments to scan
+	 * @param periods periods to scan
+	 * @param indicatorBeans indicators to calculate, of any output dimension
+	 * @return dense matrix of the latest values
+	 * @throws JFException if any calculation fails
+	 */
+	public ScanResult scan(final Instrument[] instruments, final Period[] periods,
+			final List<? extends AbstractIndicatorBean> indicatorBeans) throws JFException
+	{
+		final ScanResult result = new ScanResult(instruments, periods, indicatorBeans);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(instruments.length * periods.length);
+		for (int i = 0; i < instruments.length; i++) {
+			for (int p = 0; p < periods.length; p++) {
+				final int instrumentIndex = i, periodIndex = p;
+				tasks.add(new Callable<Void>() {
+					@Override public Void call() throws JFException {
+						IndicatorResults results = Indicating.calculateAll(instruments[instrumentIndex], 
+										periods[periodIndex], indicatorBeans, 1);
+						result.set(instrumentIndex, periodIndex, results);
+						return null;
+					}
+				});
+			}
+		}
+		
+		List<Future<Void>> futures;
+		try {
+			futures = pool.invokeAll(tasks);
+			for (Future<Void> future : futures)
+				future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Scan interrupted", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof JFException)
+				throw (JFException)ex.getCause();
+			throw new IllegalStateException("Scan failed", ex.getCause());
+		}
+		return result;
+	}
+	
+	/**
+	 * Stop the worker threads, call from onStop
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+}
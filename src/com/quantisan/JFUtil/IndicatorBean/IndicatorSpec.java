@@ -0,0 +1,143 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.dukascopy.api.IIndicators.AppliedPrice;
+import com.dukascopy.api.OfferSide;
+
+/**
+ * Immutable, interned snapshot of an indicator bean's parameters.  
+ * Build one once, e.g. in onStart, and use it anywhere a bean is accepted:
+ * 
+ * <pre>
+ * {@code 
+ * IndicatorSpec ema = IndicatorBeanFactory.getMovingAverage()
+ *                         .setMAType(IIndicators.MaType.EMA)
+ *                         .setWidth(14)
+ *                         .toSpec();
+ * double value = Indicating.calculate(instrument, Period.ONE_MIN, ema);}
+ * </pre>
+ * 
+ * Equal parameters always give the same instance, with its hash code and 
+ * the boxed argument arrays for {@link com.dukascopy.api.IIndicators} 
+ * computed once, so a spec is a cheap cache key and safe to share 
+ * across threads.
+ * 
+ * @author plam
+ *
+ */
+public final class IndicatorSpec extends AbstractIndicatorBean {
+	private static final ConcurrentMap<IndicatorSpec, IndicatorSpec> INTERNED = 
+		new ConcurrentHashMap<IndicatorSpec, IndicatorSpec>();
+	
+	private final String name;
+	private final String specFunctionName;
+	private final OfferSide[] specOfferSides;
+	private final Object[] specParams;
+	private final AppliedPrice[] specInputTypes;
+	private final int hash;
+	private volatile int lookback = -1, warmUp = -1, lines = -1;
+	
+	private IndicatorSpec(AbstractIndicatorBean bean) {
+		name = bean.toString();
+		specFunctionName = bean.getFunctionName();
+		specOfferSides = bean.getOfferSide().clone();
+		specParams = bean.getParams().clone();
+		specInputTypes = (bean.getInputTypes() == null) ? null : bean.getInputTypes().clone();
+		hash = 31 * (31 * (31 * specFunctionName.hashCode() 
+						+ Arrays.hashCode(specOfferSides))
+						+ Arrays.hashCode(specParams))
+						+ Arrays.hashCode(specInputTypes);
+	}
+	
+	/**
+	 * @param bean indicator bean with its parameters set
+	 * @return the interned spec equal to the current parameters of bean
+	 */
+	static IndicatorSpec of(AbstractIndicatorBean bean) {
+		IndicatorSpec spec = new IndicatorSpec(bean);
+		IndicatorSpec interned = INTERNED.putIfAbsent(spec, spec);
+		return (interned == null) ? spec : interned;
+	}
+	
+	/**
+	 * @return true if bean currently has the parameters of this spec, 
+	 * checked without allocating
+	 */
+	boolean matches(AbstractIndicatorBean bean) {
+		return specFunctionName.equals(bean.getFunctionName())
+			&& Arrays.equals(specOfferSides, bean.getOfferSide())
+			&& Arrays.equals(specParams, bean.getParams())
+			&& Arrays.equals(specInputTypes, bean.getInputTypes());
+	}
+	
+	@Override public IndicatorSpec toSpec() {
+		return this;
+	}
+	
+	@Override public int getLookback() {
+		if (lookback < 0)
+			computeLookback();
+		return lookback;
+	}
+	
+	/**
+	 * @return number of bars to feed before a local calculation is within
+	 * {@link Streaming#TOLERANCE} of the platform
+	 */
+	int getWarmUp() {
+		if (warmUp < 0)
+			computeLookback();
+		return warmUp;
+	}
+	
+	/**
+	 * @return number of output lines, e.g. 3 for MACD
+	 */
+	int getLines() {
+		if (lines < 0)
+			computeLookback();
+		return lines;
+	}
+	
+	private void computeLookback() {
+		StreamingIndicator state = StreamingIndicator.create(this);
+		warmUp = state.getWarmUp();
+		lines = state.getLines();
+		lookback = state.getLookback();
+	}
+	
+	@Override protected String getFunctionName() { return specFunctionName; }
+	
+	/**
+	 * @return shared array, must not be modified
+	 */
+	@Override protected OfferSide[] getOfferSide() { return specOfferSides; }
+	
+	/**
+	 * @return shared array, must not be modified
+	 */
+	@Override protected AppliedPrice[] getInputTypes() { return specInputTypes; }
+	
+	/**
+	 * @return shared array of boxed parameters, must not be modified
+	 */
+	@Override protected Object[] getParams() { return specParams; }
+	
+	@Override public int hashCode() {
+		return hash;
+	}
+	
+	@Override public boolean equals(Object obj) {
+		if (this == obj)	return true;
+		if (!(obj instanceof IndicatorSpec))	return false;
+		IndicatorSpec other = (IndicatorSpec)obj;
+		return hash == other.hash && matches(other);
+	}
+	
+	@Override public String toString() {
+		return name + " " + Arrays.toString(specParams);
+	}
+}
@@ -0,0 +1,57 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+/**
+ * Reusable output of {@link MovingAverageConvergenceDivergence}.
+ * 
+ * Example use:
+ * <pre>
+ * {@code 
+ * MACDOutput macd = new MACDOutput(1);		// once, e.g. in onStart
+ * Indicating.calculateInto(instrument, Period.ONE_MIN, macdBean, 1, macd);
+ * double histogram = macd.getLatestHistogram();}
+ * </pre>
+ * 
+ * @author plam
+ *
+ */
+public class MACDOutput extends MultiLineOutput {
+	/**
+	 * @param capacity maximum number of data points to hold
+	 */
+	public MACDOutput(int capacity) {
+		super(3, capacity);
+	}
+	
+	/**
+	 * @param index data point, 0 is the oldest
+	 * @return MACD value
+	 */
+	public double getMACD(int index) {	return get(0, index); }
+	
+	/**
+	 * @param index data point, 0 is the oldest
+	 * @return signal value
+	 */
+	public double getSignal(int index) {	return get(1, index); }
+	
+	/**
+	 * @param index data point, 0 is the oldest
+	 * @return histogram value
+	 */
+	public double getHistogram(int index) {	return get(2, index); }
+	
+	/**
+	 * @return MACD value at the last completed bar
+	 */
+	public double getLatestMACD() {	return getLatest(0); }
+	
+	/**
+	 * @return signal value at the last completed bar
+	 */
+	public double getLatestSignal() {	return getLatest(1); }
+	
+	/**
+	 * @return histogram value at the last completed bar
+	 */
+	public double getLatestHistogram() {	return getLatest(2); }
+}
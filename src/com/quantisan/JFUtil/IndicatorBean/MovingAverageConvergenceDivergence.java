@@ -12,6 +12,13 @@ import com.dukascopy.api.IIndicators.AppliedPrice;
 	*macd[0] = (double[])objs[0];		// macd values
 	*macd[1] = (double[])objs[1];		// signal values
 	*macd[2] = (double[])objs[2];		// histogram values}
+* </pre>
+ * or without casting or allocating on every bar, see {@link MACDOutput}
+ * <pre>
+* {@code 
+	*MACDOutput macd = new MACDOutput(1);
+	*Indicating.calculateInto(instrument, Period.ONE_MIN, macdBean, 1, macd);
+	*double histogram = macd.getLatestHistogram();}
 * </pre>
  * @author plam
  *
@@ -0,0 +1,79 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+/**
+ * Reusable buffer for the output lines of a multi-line indicator.  
+ * Allocate once and pass to the {@code calculateInto} methods of 
+ * {@link Indicating} or {@link Streaming} on every bar, which overwrite 
+ * its values instead of allocating new arrays.
+ * 
+ * @author plam
+ *
+ */
+public abstract class MultiLineOutput {
+	private final double[][] lines;
+	private int size;
+	
+	/**
+	 * @param lines number of output lines of the indicator
+	 * @param capacity maximum number of data points per line
+	 */
+	protected MultiLineOutput(int lines, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1");
+		this.lines = new double[lines][capacity];
+	}
+	
+	/**
+	 * @return number of output lines
+	 */
+	public int getLines() {
+		return lines.length;
+	}
+	
+	/**
+	 * @return maximum number of data points per line
+	 */
+	public int getCapacity() {
+		return lines[0].length;
+	}
+	
+	/**
+	 * @return number of data points filled by the last calculation
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @param line index of the output line, in platform output order
+	 * @return backing array of the line, valid up to {@link #size()}
+	 */
+	public double[] getLine(int line) {
+		return lines[line];
+	}
+	
+	/**
+	 * @param line index of the output line
+	 * @param index data point, 0 is the oldest
+	 * @return value of the line
+	 */
+	protected double get(int line, int index) {
+		if (index >= size)
+			throw new IndexOutOfBoundsException("index " + index + " of size " + size);
+		return lines[line][index];
+	}
+	
+	/**
+	 * @param line index of the output line
+	 * @return value of the line at the last completed bar
+	 */
+	protected double getLatest(int line) {
+		return get(line, size - 1);
+	}
+	
+	void setSize(int size) {
+		if (size > getCapacity())
+			throw new IllegalArgumentException(size + " data points exceed capacity of " + getCapacity());
+		this.size = size;
+	}
+}
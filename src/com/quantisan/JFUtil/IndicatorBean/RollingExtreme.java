@@ -0,0 +1,61 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+/**
+ * Highest or lowest value over a fixed-width window, kept with a
+ * monotonic deque so each update costs amortized constant time.
+ *
+ * @author plam
+ *
+ */
+final class RollingExtreme {
+	private final boolean isMax;
+	private final double[] values;
+	private final long[] indices;
+	private int head, size;
+	private long count;
+
+	/**
+	 * @param width number of values in the window, at least 1
+	 * @param isMax true to track the highest value, false for the lowest
+	 */
+	RollingExtreme(int width, boolean isMax) {
+		if (width < 1)
+			throw new IllegalArgumentException("width must be at least 1");
+		this.isMax = isMax;
+		values = new double[width];
+		indices = new long[width];
+	}
+
+	/**
+	 * @param value the new value
+	 * @return extreme of the window, or NaN until the window is full
+	 */
+	double update(double value) {
+		final int width = values.length;
+		// drop the front once it falls out of the window
+		if (size > 0 && indices[head] <= count - width) {
+			if (++head == width)	head = 0;
+			size--;
+		}
+		// drop values from the back which can never be the extreme again
+		while (size > 0) {
+			int back = (head + size - 1) % width;
+			if (isMax ? values[back] <= value : values[back] >= value)
+				size--;
+			else	break;
+		}
+		int tail = (head + size) % width;
+		values[tail] = value;
+		indices[tail] = count;
+		size++;
+		count++;
+		return isReady() ? values[head] : Double.NaN;
+	}
+
+	/**
+	 * @return true once the window has been filled
+	 */
+	boolean isReady() {
+		return count >= values.length;
+	}
+}
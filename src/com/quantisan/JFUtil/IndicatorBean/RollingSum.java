@@ -0,0 +1,57 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+/**
+ * Running sum over a fixed-width window of values, updated in constant time.
+ *
+ * @author plam
+ *
+ */
+final class RollingSum {
+	private final double[] window;
+	private double sum;
+	private int next;
+	private long count;
+
+	/**
+	 * @param width number of values in the window, at least 1
+	 */
+	RollingSum(int width) {
+		if (width < 1)
+			throw new IllegalArgumentException("width must be at least 1");
+		window = new double[width];
+	}
+
+	/**
+	 * Push a value into the window, dropping the oldest one once full
+	 *
+	 * @param value the new value
+	 * @return sum of the window, or NaN until the window is full
+	 */
+	double update(double value) {
+		sum += value - window[next];
+		window[next] = value;
+		if (++next == window.length)	next = 0;
+		count++;
+		return isReady() ? sum : Double.NaN;
+	}
+
+	/**
+	 * @return value pushed {@code shift} updates ago, shift 0 is the latest
+	 */
+	double get(int shift) {
+		int i = next - 1 - shift;
+		if (i < 0)	i += window.length;
+		return window[i];
+	}
+
+	/**
+	 * @return true once the window has been filled
+	 */
+	boolean isReady() {
+		return count >= window.length;
+	}
+
+	int getWidth() {
+		return window.length;
+	}
+}
@@ -0,0 +1,96 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.Period;
+
+/**
+ * Dense matrix of the latest indicator values returned by 
+ * {@link IndicatorScanner#scan(Instrument[], Period[], List)}, 
+ * indexed by instrument, period, indicator and output line.
+ * 
+ * @author plam
+ *
+ */
+public class ScanResult {
+	private final Instrument[] instruments;
+	private final Period[] periods;
+	private final int indicators, lines;
+	private final double[] values;
+	
+	ScanResult(Instrument[] instruments, Period[] periods, 
+			List<? extends AbstractIndicatorBean> indicatorBeans) {
+		this.instruments = instruments.clone();
+		this.periods = periods.clone();
+		this.indicators = indicatorBeans.size();
+		int most = 1;
+		for (AbstractIndicatorBean bean : indicatorBeans)
+			most = Math.max(most, bean.toSpec().getLines());
+		this.lines = most;
+		this.values = new double[instruments.length * periods.length * indicators * lines];
+		Arrays.fill(values, Double.NaN);
+	}
+	
+	/**
+	 * Store results of one instrument and period, each task writes 
+	 * a disjoint slice of the matrix
+	 */
+	void set(int instrumentIndex, int periodIndex, IndicatorResults results) {
+		for (int b = 0; b < indicators; b++) {
+			int count = results.getLines(b);
+			if (count > lines)
+				throw new IllegalStateException("indicator " + b + " has " 
+								+ count + " output lines, expected at most " + lines);
+			for (int line = 0; line < count; line++)
+				values[index(instrumentIndex, periodIndex, b, line)] = results.getLatest(b, line);
+		}
+	}
+	
+	private int index(int instrumentIndex, int periodIndex, int indicatorIndex, int line) {
+		return ((instrumentIndex * periods.length + periodIndex) * indicators 
+				+ indicatorIndex) * lines + line;
+	}
+	
+	/**
+	 * @param instrumentIndex position of the instrument in the scanned array
+	 * @param periodIndex position of the period in the scanned array
+	 * @param indicatorIndex position of the bean in the scanned list
+	 * @param line output line of the indicator, less than the most lines of the scanned beans
+	 * @return value at the last completed bar, NaN if the indicator has no such line
+	 */
+	public double get(int instrumentIndex, int periodIndex, int indicatorIndex, int line) {
+		if (line < 0 || line >= lines)
+			throw new IndexOutOfBoundsException("line " + line + " of " + lines);
+		return values[index(instrumentIndex, periodIndex, indicatorIndex, line)];
+	}
+	
+	/**
+	 * @return value of the first output line at the last completed bar
+	 */
+	public double get(int instrumentIndex, int periodIndex, int indicatorIndex) {
+		return get(instrumentIndex, periodIndex, indicatorIndex, 0);
+	}
+	
+	/**
+	 * @return value of the first output line at the last completed bar
+	 */
+	public double get(Instrument instrument, Period period, int indicatorIndex) {
+		return get(indexOf(instruments, instrument), indexOf(periods, period), indicatorIndex, 0);
+	}
+	
+	private static int indexOf(Object[] array, Object element) {
+		for (int i = 0; i < array.length; i++)
+			if (array[i] == element)	return i;
+		throw new IllegalArgumentException(element + " was not scanned");
+	}
+	
+	public Instrument[] getInstruments() {
+		return instruments.clone();
+	}
+	
+	public Period[] getPeriods() {
+		return periods.clone();
+	}
+}
@@ -12,6 +12,13 @@ import com.dukascopy.api.OfferSide;
 	*double[][] sto = new double[2][];
 	*sto[0] = (double[])objs[0];		// %K values
 	*sto[1] = (double[])objs[1];		// %D values}
+* </pre>
+ * or without casting or allocating on every bar, see {@link StochasticOutput}
+ * <pre>
+* {@code 
+	*StochasticOutput sto = new StochasticOutput(1);
+	*Indicating.calculateInto(instrument, Period.ONE_MIN, stochBean, 1, sto);
+	*double k = sto.getLatestK();}
 * </pre>
  * @author plam
  *
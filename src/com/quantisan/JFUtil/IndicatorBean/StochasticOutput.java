@@ -0,0 +1,48 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+/**
+ * Reusable %K and %D output of {@link Stochastic}, {@link FastStochastic} 
+ * and {@link StochasticRelativeStrengthIndex}.
+ * 
+ * Example use:
+ * <pre>
+ * {@code 
+ * StochasticOutput sto = new StochasticOutput(1);		// once, e.g. in onStart
+ * Indicating.calculateInto(instrument, Period.ONE_MIN, stochBean, 1, sto);
+ * double k = sto.getLatestK();
+ * double d = sto.getLatestD();}
+ * </pre>
+ * 
+ * @author plam
+ *
+ */
+public class StochasticOutput extends MultiLineOutput {
+	/**
+	 * @param capacity maximum number of data points to hold
+	 */
+	public StochasticOutput(int capacity) {
+		super(2, capacity);
+	}
+	
+	/**
+	 * @param index data point, 0 is the oldest
+	 * @return %K value
+	 */
+	public double getK(int index) {	return get(0, index); }
+	
+	/**
+	 * @param index data point, 0 is the oldest
+	 * @return %D value
+	 */
+	public double getD(int index) {	return get(1, index); }
+	
+	/**
+	 * @return %K value at the last completed bar
+	 */
+	public double getLatestK() {	return getLatest(0); }
+	
+	/**
+	 * @return %D value at the last completed bar
+	 */
+	public double getLatestD() {	return getLatest(1); }
+}
@@ -13,6 +13,7 @@ import com.dukascopy.api.IIndicators.AppliedPrice;
 	*sto[0] = (double[])objs[0];		// Fast %K values
 	*sto[1] = (double[])objs[1];		// Fast %D values}
 * </pre>
+ * or without casting or allocating on every bar, see {@link StochasticOutput}
  * @author plam
  *
  */
@@ -0,0 +1,278 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dukascopy.api.Filter;
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.IHistory;
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.JFException;
+import com.dukascopy.api.OfferSide;
+import com.dukascopy.api.Period;
+import com.quantisan.JFUtil.BarSeries;
+import com.quantisan.JFUtil.BarStore;
+import com.quantisan.JFUtil.JForexContext;
+
+/**
+ * Incrementally updated indicators.  Instead of recalculating the whole
+ * lookback window through {@link Indicating} on every call, the state of
+ * each indicator is kept per instrument and period and updated once per
+ * new bar in constant time.
+ *
+ * Feed every bar from the strategy:
+ * <pre>
+ * {@code
+ * public void onBar(Instrument instrument, Period period, IBar askBar, IBar bidBar) {
+ *     Streaming.update(instrument, period, askBar, bidBar);
+ *     double ema = Streaming.calculate(instrument, Period.ONE_MIN, maBean);
+ * }}
+ * </pre>
+ *
+ * The first request for a bean warms its state up from {@link BarStore}
+ * if it holds enough bars, or else from history, unless it was already
+ * warmed up by {@link Indicating#prefetch()}.  After that
+ * only the bars passed to {@link #update(Instrument, Period, IBar, IBar)}
+ * are used.  Results agree with {@link Indicating} to within
+ * {@link #TOLERANCE}.
+ *
+ * Calls may come from any thread; they share one lock, which is also held
+ * while a first request warms up from history.
+ *
+ * @author plam
+ *
+ */
+public class Streaming {
+	private static final Streaming INSTANCE = new Streaming();
+
+	/**
+	 * Maximum relative difference between a streamed value and the
+	 * platform calculation of the same bean on the same bar.  Non-recursive
+	 * indicators (SMA, WMA, TRIMA, STOCH and STOCHF with simple averages,
+	 * ULTOSC) match exactly up to floating point roundoff.  Recursive ones
+	 * (EMA based averages, ATR, MACD, RSI) are warmed up with enough history
+	 * for their seed to decay below this bound.  MAMA is not supported.
+	 */
+	public static final double TOLERANCE = 1e-6;
+
+	private final Map<Instrument, Map<Period, Streams>> streams =
+		new EnumMap<Instrument, Map<Period, Streams>>(Instrument.class);
+
+	private Streaming() {};
+
+	/**
+	 * Feed a completed bar to every indicator streamed on the instrument
+	 * and period.  Call from onBar.
+	 *
+	 * @param instrument instrument of the bar
+	 * @param period period of the bar
+	 * @param askBar completed ask bar
+	 * @param bidBar completed bid bar
+	 */
+	public static void update(Instrument instrument, Period period,
+			IBar askBar, IBar bidBar)
+	{
+		synchronized (INSTANCE) {
+			Streams series = INSTANCE.getStreams(instrument, period, false);
+			if (series == null)		return;
+			for (int i = 0; i < series.list.size(); i++) {
+				Stream stream = series.list.get(i);
+				stream.update(stream.side == OfferSide.BID ? bidBar : askBar);
+			}
+		}
+	}
+
+	/**
+	 * @param instrument
+	 * @param period
+	 * @param indicatorBean indicator returning a 1-dimensional array
+	 * @return latest value of the indicator, NaN if not enough bars yet
+	 * @throws JFException when warming up from history fails
+	 */
+	public static double calculate(Instrument instrument, Period period,
+			AbstractIndicatorBean indicatorBean) throws JFException
+	{
+		synchronized (INSTANCE) {
+			return INSTANCE.getStream(instrument, period, indicatorBean).state.getValue(0);
+		}
+	}
+
+	/**
+	 * @param instrument
+	 * @param period
+	 * @param indicatorBean indicator returning several lines, e.g. MACD
+	 * @return latest value of each output line, in platform output order
+	 * @throws JFException when warming up from history fails
+	 */
+	public static double[] calculateMultiDimension(Instrument instrument, Period period,
+			AbstractIndicatorBean indicatorBean) throws JFException
+	{
+		synchronized (INSTANCE) {
+			StreamingIndicator state = INSTANCE.getStream(instrument, period, indicatorBean).state;
+			double[] output = new double[state.getLines()];
+			for (int i = 0; i < output.length; i++)
+				output[i] = state.getValue(i);
+			return output;
+		}
+	}
+
+	/**
+	 * Write the latest value of each output line into a caller-owned buffer,
+	 * without allocating once the indicator is warmed up.
+	 *
+	 * @param instrument
+	 * @param period
+	 * @param indicatorBean indicator to stream
+	 * @param dest buffer with room for every output line, in platform output order
+	 * @throws JFException when warming up from history fails
+	 */
+	public static void calculateInto(Instrument instrument, Period period,
+			AbstractIndicatorBean indicatorBean, double[] dest) throws JFException
+	{
+		synchronized (INSTANCE) {
+			StreamingIndicator state = INSTANCE.getStream(instrument, period, indicatorBean).state;
+			if (dest.length < state.getLines())
+				throw new IllegalArgumentException("dest is shorter than " + state.getLines() + " lines");
+			for (int i = 0; i < state.getLines(); i++)
+				dest[i] = state.getValue(i);
+		}
+	}
+
+	/**
+	 * Write the latest value of each output line into a caller-owned typed
+	 * output as a single data point, e.g. {@link MACDOutput}
+	 *
+	 * @param instrument
+	 * @param period
+	 * @param indicatorBean multi-line indicator to stream
+	 * @param dest output with one line per indicator output
+	 * @throws JFException when warming up from history fails
+	 */
+	public static void calculateInto(Instrument instrument, Period period,
+			AbstractIndicatorBean indicatorBean, MultiLineOutput dest) throws JFException
+	{
+		synchronized (INSTANCE) {
+			StreamingIndicator state = INSTANCE.getStream(instrument, period, indicatorBean).state;
+			if (dest.getLines() != state.getLines())
+				throw new IllegalArgumentException(indicatorBean.getFunctionName() + " has "
+								+ state.getLines() + " output lines, dest has " + dest.getLines());
+			dest.setSize(1);
+			for (int i = 0; i < state.getLines(); i++)
+				dest.getLine(i)[0] = state.getValue(i);
+		}
+	}
+
+	/**
+	 * Start streaming an indicator from bars already fetched, e.g. by
+	 * {@link Indicating#prefetch()}
+	 *
+	 * @param bars history of the indicator's offer side, oldest first
+	 */
+	static void warmUp(Instrument instrument, Period period,
+			IndicatorSpec spec, List<IBar> bars)
+	{
+		synchronized (INSTANCE) {
+			Streams series = INSTANCE.getStreams(instrument, period, true);
+			Stream stream = series.bySpec.get(spec);
+			if (stream == null) {
+				stream = new Stream(spec);
+				series.bySpec.put(spec, stream);
+				series.list.add(stream);
+			}
+			for (IBar bar : bars)
+				stream.update(bar);
+		}
+	}
+
+	/**
+	 * Stop streaming all indicators and drop their state
+	 */
+	public static void reset() {
+		synchronized (INSTANCE) {
+			INSTANCE.streams.clear();
+		}
+	}
+
+	private Stream getStream(Instrument instrument, Period period,
+			AbstractIndicatorBean indicatorBean) throws JFException
+	{
+		Streams series = getStreams(instrument, period, true);
+		IndicatorSpec spec = indicatorBean.toSpec();
+		Stream stream = series.bySpec.get(spec);
+		if (stream == null) {
+			stream = new Stream(spec);
+			stream.warmUp(instrument, period);
+			series.bySpec.put(spec, stream);
+			series.list.add(stream);
+		}
+		return stream;
+	}
+
+	private Streams getStreams(Instrument instrument, Period period, boolean isCreate) {
+		Map<Period, Streams> periods = streams.get(instrument);
+		if (periods == null) {
+			if (!isCreate)	return null;
+			periods = new EnumMap<Period, Streams>(Period.class);
+			streams.put(instrument, periods);
+		}
+		Streams series = periods.get(period);
+		if (series == null && isCreate) {
+			series = new Streams();
+			periods.put(period, series);
+		}
+		return series;
+	}
+
+	/**
+	 * Streams of one instrument and period, listed for iterating
+	 * in onBar without allocating
+	 */
+	private static class Streams {
+		private final Map<IndicatorSpec, Stream> bySpec = new HashMap<IndicatorSpec, Stream>();
+		private final List<Stream> list = new ArrayList<Stream>();
+	}
+
+	private static class Stream {
+		private final OfferSide side;
+		private final StreamingIndicator state;
+		private long lastTime = Long.MIN_VALUE;
+
+		Stream(IndicatorSpec spec) {
+			this.side = spec.getOfferSide()[0];
+			this.state = StreamingIndicator.create(spec);
+		}
+
+		void update(IBar bar) {
+			update(bar.getTime(), bar.getOpen(), bar.getHigh(), bar.getLow(), bar.getClose());
+		}
+
+		void update(long time, double open, double high, double low, double close) {
+			if (time <= lastTime)		return;		// already seen
+			lastTime = time;
+			state.update(open, high, low, close);
+		}
+
+		void warmUp(Instrument instrument, Period period) throws JFException {
+			int count = state.getWarmUp() + 1;
+			// the store holds unfiltered bars, as delivered to onBar
+			BarSeries series = BarStore.getSeries(instrument, period, side);
+			if (series != null && series.size() >= count
+					&& Indicating.getFilter() == Filter.NO_FILTER) {
+				for (int shift = count - 1; shift >= 0; shift--)
+					update(series.getTime(shift), series.getOpen(shift), series.getHigh(shift),
+							series.getLow(shift), series.getClose(shift));
+				return;
+			}
+			IHistory history = JForexContext.getHistory();
+			IBar last = history.getBar(instrument, period, side, 1);
+			List<IBar> bars = history.getBars(instrument, period, side,
+									Indicating.getFilter(), count,
+									last.getTime(), 0);
+			for (IBar bar : bars)
+				update(bar);
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+import java.util.Arrays;
+
+import com.dukascopy.api.IIndicators.AppliedPrice;
+import com.dukascopy.api.IIndicators.MaType;
+import com.quantisan.JFUtil.Barer;
+
+/**
+ * State of one indicator over one price series, updated bar by bar in
+ * constant time.
+ *
+ * @author plam
+ *
+ */
+abstract class StreamingIndicator {
+	private final double[] values;
+
+	StreamingIndicator(int lines) {
+		values = new double[lines];
+		Arrays.fill(values, Double.NaN);
+	}
+
+	/**
+	 * Feed the next completed bar
+	 */
+	abstract void update(double open, double high, double low, double close);
+
+	/**
+	 * @return number of bars consumed before the first output
+	 */
+	abstract int getLookback();
+
+	/**
+	 * @return number of bars to feed before the output is within
+	 * {@link Streaming#TOLERANCE} of a full history calculation
+	 */
+	abstract int getWarmUp();
+
+	/**
+	 * @return number of output lines, e.g. 3 for MACD
+	 */
+	final int getLines() {
+		return values.length;
+	}
+
+	/**
+	 * @param line index of the output line, same order as the platform outputs
+	 * @return latest value of the line, NaN while warming up
+	 */
+	final double getValue(int line) {
+		return values[line];
+	}
+
+	final void setValue(int line, double value) {
+		values[line] = value;
+	}
+
+	/**
+	 * Build the streaming state for an indicator bean
+	 *
+	 * @param bean indicator and its parameters
+	 * @return a new state, ready to be fed from the oldest bar
+	 */
+	static StreamingIndicator create(AbstractIndicatorBean bean) {
+		String name = bean.getFunctionName();
+		Object[] params = bean.getParams();
+		AppliedPrice[] inputs = bean.getInputTypes();
+		AppliedPrice ap = (inputs == null) ? AppliedPrice.CLOSE : inputs[0];
+
+		if (name.equals("MA")) {
+			return new MovingAverageStream(ap,
+					Average.getType(param(params, 1)), param(params, 0));
+		} else if (name.equals("ATR")) {
+			return new AverageTrueRangeStream(param(params, 0));
+		} else if (name.equals("STOCH")) {
+			return new StochasticStream(param(params, 0),
+					param(params, 1), Average.getType(param(params, 2)),
+					param(params, 3), Average.getType(param(params, 4)));
+		} else if (name.equals("STOCHF")) {
+			return new FastStochasticStream(param(params, 0),
+					param(params, 1), Average.getType(param(params, 2)));
+		} else if (name.equals("STOCHRSI")) {
+			return new StochasticRSIStream(ap, param(params, 0),
+					param(params, 1), param(params, 2),
+					Average.getType(param(params, 3)));
+		} else if (name.equals("MACD")) {
+			return new MACDStream(ap, param(params, 0),
+					param(params, 1), param(params, 2));
+		} else if (name.equals("ULTOSC")) {
+			return new UltimateOscillatorStream(param(params, 0),
+					param(params, 1), param(params, 2));
+		}
+		throw new IllegalArgumentException(name + " has no streaming implementation");
+	}
+
+	private static int param(Object[] params, int i) {
+		return ((Number)params[i]).intValue();
+	}
+
+	private static final class MovingAverageStream extends StreamingIndicator {
+		private final AppliedPrice ap;
+		private final Average ma;
+
+		MovingAverageStream(AppliedPrice ap, MaType type, int width) {
+			super(1);
+			this.ap = ap;
+			this.ma = Average.create(type, width);
+		}
+
+		@Override void update(double open, double high, double low, double close) {
+			setValue(0, ma.update(Barer.calcAppliedPrice(open, high, low, close, ap)));
+		}
+		@Override int getLookback() {	return ma.getLookback(); }
+		@Override int getWarmUp() {	return ma.getWarmUp(); }
+	}
+
+	/**
+	 * Wilder smoothed true range, seeded with the simple average of the
+	 * first window
+	 */
+	private static final class AverageTrueRangeStream extends StreamingIndicator {
+		private final int width;
+		private double prevClose = Double.NaN;
+		private double sum, atr = Double.NaN;
+		private int count;
+
+		AverageTrueRangeStream(int width) {
+			super(1);
+			if (width < 1)
+				throw new IllegalArgumentException("width must be at least 1");
+			this.width = width;
+		}
+
+		@Override void update(double open, double high, double low, double close) {
+			if (!Double.isNaN(prevClose)) {
+				double tr = Math.max(high, prevClose) - Math.min(low, prevClose);
+				if (count < width) {
+					sum += tr;
+					if (++count == width)
+						atr = sum / width;
+				} else {
+					atr = (atr * (width - 1) + tr) / width;
+				}
+			}
+			prevClose = close;
+			setValue(0, atr);
+		}
+		@Override int getLookback() {	return width; }
+		@Override int getWarmUp() {	return width + Average.CONVERGENCE_WIDTHS * width; }
+	}
+
+	/**
+	 * Raw %K from the highest high and lowest low of a window
+	 */
+	private static final class RawStochastic {
+		private final RollingExtreme highest, lowest;
+
+		RawStochastic(int width) {
+			highest = new RollingExtreme(width, true);
+			lowest = new RollingExtreme(width, false);
+		}
+
+		double update(double high, double low, double close) {
+			double hh = highest.update(high);
+			double ll = lowest.update(low);
+			if (Double.isNaN(hh))	return Double.NaN;
+			double range = hh - ll;
+			return (range > 0d) ? 100d * (close - ll) / range : 0d;
+		}
+	}
+
+	private static final class StochasticStream extends StreamingIndicator {
+		private final RawStochastic fastK;
+		private final Average slowK, slowD;
+		private final int lookback;
+
+		StochasticStream(int fastKWidth, int slowKWidth, MaType slowKType,
+						int slowDWidth, MaType slowDType) {
+			super(2);
+			fastK = new RawStochastic(fastKWidth);
+			slowK = Average.create(slowKType, slowKWidth);
+			slowD = Average.create(slowDType, slowDWidth);
+			lookback = fastKWidth - 1 + slowK.getLookback() + slowD.getLookback();
+		}
+
+		@Override void update(double open, double high, double low, double close) {
+			double k = fastK.update(high, low, close);
+			if (Double.isNaN(k))	return;
+			k = slowK.update(k);
+			if (Double.isNaN(k))	return;
+			double d = slowD.update(k);
+			if (Double.isNaN(d))	return;
+			setValue(0, k);
+			setValue(1, d);
+		}
+		@Override int getLookback() {	return lookback; }
+		@Override int getWarmUp() {
+			return lookback + (slowK.getWarmUp() - slowK.getLookback())
+							+ (slowD.getWarmUp() - slowD.getLookback());
+		}
+	}
+
+	private static final class FastStochasticStream extends StreamingIndicator {
+		private final RawStochastic fastK;
+		private final Average fastD;
+		private final int lookback;
+
+		FastStochasticStream(int fastKWidth, int fastDWidth, MaType fastDType) {
+			super(2);
+			fastK = new RawStochastic(fastKWidth);
+			fastD = Average.create(fastDType, fastDWidth);
+			lookback = fastKWidth - 1 + fastD.getLookback();
+		}
+
+		@Override void update(double open, double high, double low, double close) {
+			double k = fastK.update(high, low, close);
+			if (Double.isNaN(k))	return;
+			double d = fastD.update(k);
+			if (Double.isNaN(d))	return;
+			setValue(0, k);
+			setValue(1, d);
+		}
+		@Override int getLookback() {	return lookback; }
+		@Override int getWarmUp() {	return lookback + fastD.getWarmUp() - fastD.getLookback(); }
+	}
+
+	/**
+	 * Fast stochastic of a Wilder RSI
+	 */
+	private static final class StochasticRSIStream extends StreamingIndicator {
+		private final AppliedPrice ap;
+		private final int rsiWidth;
+		private final RawStochastic fastK;
+		private final Average fastD;
+		private final int lookback;
+		private double prevPrice = Double.NaN;
+		private double gain, loss;
+		private int count;
+
+		StochasticRSIStream(AppliedPrice ap, int rsiWidth, int fastKWidth,
+							int fastDWidth, MaType fastDType) {
+			super(2);
+			if (rsiWidth < 1)
+				throw new IllegalArgumentException("width must be at least 1");
+			this.ap = ap;
+			this.rsiWidth = rsiWidth;
+			fastK = new RawStochastic(fastKWidth);
+			fastD = Average.create(fastDType, fastDWidth);
+			lookback = rsiWidth + fastKWidth - 1 + fastD.getLookback();
+		}
+
+		@Override void update(double open, double high, double low, double close) {
+			double price = Barer.calcAppliedPrice(open, high, low, close, ap);
+			double change = price - prevPrice;
+			boolean isFirst = Double.isNaN(prevPrice);
+			prevPrice = price;
+			if (isFirst)	return;
+
+			double up = change > 0d ? change : 0d;
+			double down = change < 0d ? -change : 0d;
+			if (count < rsiWidth) {			// seed with simple averages
+				gain += up / rsiWidth;
+				loss += down / rsiWidth;
+				if (++count < rsiWidth)	return;
+			} else {
+				gain = (gain * (rsiWidth - 1) + up) / rsiWidth;
+				loss = (loss * (rsiWidth - 1) + down) / rsiWidth;
+			}
+			double total = gain + loss;
+			double rsi = (total > 0d) ? 100d * gain / total : 0d;
+
+			double k = fastK.update(rsi, rsi, rsi);
+			if (Double.isNaN(k))	return;
+			double d = fastD.update(k);
+			if (Double.isNaN(d))	return;
+			setValue(0, k);
+			setValue(1, d);
+		}
+		@Override int getLookback() {	return lookback; }
+		@Override int getWarmUp() {
+			return lookback + Average.CONVERGENCE_WIDTHS * rsiWidth
+							+ fastD.getWarmUp() - fastD.getLookback();
+		}
+	}
+
+	private static final class MACDStream extends StreamingIndicator {
+		private final AppliedPrice ap;
+		private final Average fast, slow, signal;
+		private final int lookback, warmUp;
+
+		MACDStream(AppliedPrice ap, int fastWidth, int slowWidth, int signalWidth) {
+			super(3);
+			if (slowWidth < fastWidth) {		// as the platform does
+				int temp = slowWidth;
+				slowWidth = fastWidth;
+				fastWidth = temp;
+			}
+			this.ap = ap;
+			fast = Average.create(MaType.EMA, fastWidth);
+			slow = Average.create(MaType.EMA, slowWidth);
+			signal = Average.create(MaType.EMA, signalWidth);
+			lookback = slow.getLookback() + signal.getLookback();
+			warmUp = slow.getWarmUp() + signal.getWarmUp();
+		}
+
+		@Override void update(double open, double high, double low, double close) {
+			double price = Barer.calcAppliedPrice(open, high, low, close, ap);
+			double f = fast.update(price);
+			double s = slow.update(price);
+			if (Double.isNaN(s))	return;
+			double macd = f - s;
+			double sig = signal.update(macd);
+			if (Double.isNaN(sig))	return;
+			setValue(0, macd);
+			setValue(1, sig);
+			setValue(2, macd - sig);
+		}
+		@Override int getLookback() {	return lookback; }
+		@Override int getWarmUp() {	return warmUp; }
+	}
+
+	/**
+	 * Weighted average of buying pressure over true range in three
+	 * windows, shortest window weighted most
+	 */
+	private static final class UltimateOscillatorStream extends StreamingIndicator {
+		private static final double[] WEIGHTS = {4d, 2d, 1d};
+		private final RollingSum[] pressures = new RollingSum[3];
+		private final RollingSum[] ranges = new RollingSum[3];
+		private final int lookback;
+		private double prevClose = Double.NaN;
+
+		UltimateOscillatorStream(int firstWidth, int secondWidth, int thirdWidth) {
+			super(1);
+			int[] widths = {firstWidth, secondWidth, thirdWidth};
+			Arrays.sort(widths);
+			for (int i = 0; i < widths.length; i++) {
+				pressures[i] = new RollingSum(widths[i]);
+				ranges[i] = new RollingSum(widths[i]);
+			}
+			lookback = widths[2];
+		}
+
+		@Override void update(double open, double high, double low, double close) {
+			if (Double.isNaN(prevClose)) {
+				prevClose = close;
+				return;
+			}
+			double trueLow = Math.min(low, prevClose);
+			double pressure = close - trueLow;
+			double range = Math.max(high, prevClose) - trueLow;
+			prevClose = close;
+
+			double total = 0d;
+			for (int i = 0; i < pressures.length; i++) {
+				double p = pressures[i].update(pressure);
+				double r = ranges[i].update(range);
+				total += (r > 0d) ? WEIGHTS[i] * p / r : 0d;
+			}
+			if (ranges[2].isReady())
+				setValue(0, 100d * total / 7d);
+		}
+		@Override int getLookback() {	return lookback; }
+		@Override int getWarmUp() {	return lookback; }
+	}
+}
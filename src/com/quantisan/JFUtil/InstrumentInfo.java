@@ -0,0 +1,138 @@
+package com.quantisan.JFUtil;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dukascopy.api.Instrument;
+
+/**
+ * Precomputed properties of every instrument, looked up by ordinal
+ * instead of being derived again on each call
+ *
+ * @author plam
+ *
+ */
+public final class InstrumentInfo {
+	private static final Instrument[] INSTRUMENTS = Instrument.values();
+	private static final int[] pipScale = new int[INSTRUMENTS.length];
+	private static final double[] pipValue = new double[INSTRUMENTS.length];
+	private static final double[] pipMultiplier = new double[INSTRUMENTS.length];
+	private static final double[] tenthPipMultiplier = new double[INSTRUMENTS.length];
+	private static final int[] primaryIndex = new int[INSTRUMENTS.length];
+	private static final int[] secondaryIndex = new int[INSTRUMENTS.length];
+	private static final String[] labelPrefix = new String[INSTRUMENTS.length];
+	private static final Map<Currency, Integer> currencyIndex = new HashMap<Currency, Integer>();
+	private static final List<Currency> currencies = new ArrayList<Currency>();
+
+	static {
+		for (Instrument instrument : INSTRUMENTS) {
+			int i = instrument.ordinal();
+			pipScale[i] = instrument.getPipScale();
+			pipValue[i] = instrument.getPipValue();
+			pipMultiplier[i] = Math.pow(10, pipScale[i]);
+			tenthPipMultiplier[i] = Math.pow(10, pipScale[i] + 1);
+			primaryIndex[i] = index(instrument.getPrimaryCurrency());
+			secondaryIndex[i] = index(instrument.getSecondaryCurrency());
+			labelPrefix[i] = instrument.getPrimaryCurrency().getCurrencyCode()
+							+ instrument.getSecondaryCurrency().getCurrencyCode();
+		}
+	}
+
+	private InstrumentInfo() {}
+
+	private static int index(Currency currency) {
+		Integer index = currencyIndex.get(currency);
+		if (index == null) {
+			index = currencies.size();
+			currencyIndex.put(currency, index);
+			currencies.add(currency);
+		}
+		return index;
+	}
+
+	/**
+	 * @param ordinal ordinal of an instrument
+	 * @return the instrument, without cloning {@link Instrument#values()}
+	 */
+	public static Instrument getInstrument(int ordinal) {
+		return INSTRUMENTS[ordinal];
+	}
+
+	/**
+	 * @return number of instruments
+	 */
+	public static int getInstrumentCount() {
+		return INSTRUMENTS.length;
+	}
+
+	public static int getPipScale(Instrument instrument) {
+		return pipScale[instrument.ordinal()];
+	}
+
+	public static double getPipValue(Instrument instrument) {
+		return pipValue[instrument.ordinal()];
+	}
+
+	/**
+	 * @param instrument
+	 * @return 10 to the power of the pip scale, i.e. pips per unit of price
+	 */
+	public static double getPipMultiplier(Instrument instrument) {
+		return pipMultiplier[instrument.ordinal()];
+	}
+
+	/**
+	 * @param instrument
+	 * @return tenths of a pip per unit of price
+	 */
+	public static double getTenthPipMultiplier(Instrument instrument) {
+		return tenthPipMultiplier[instrument.ordinal()];
+	}
+
+	/**
+	 * @param instrument
+	 * @return index of the base currency, see {@link #getCurrency(int)}
+	 */
+	public static int getPrimaryIndex(Instrument instrument) {
+		return primaryIndex[instrument.ordinal()];
+	}
+
+	/**
+	 * @param instrument
+	 * @return index of the counter currency, see {@link #getCurrency(int)}
+	 */
+	public static int getSecondaryIndex(Instrument instrument) {
+		return secondaryIndex[instrument.ordinal()];
+	}
+
+	/**
+	 * @return number of distinct currencies over all instruments
+	 */
+	public static int getCurrencyCount() {
+		return currencies.size();
+	}
+
+	public static Currency getCurrency(int index) {
+		return currencies.get(index);
+	}
+
+	/**
+	 * @param currency
+	 * @return index of the currency, -1 if no instrument trades it
+	 */
+	public static int getCurrencyIndex(Currency currency) {
+		Integer index = currencyIndex.get(currency);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * @param instrument
+	 * @return both currencies without separator, e.g. EURUSD
+	 */
+	public static String getLabelPrefix(Instrument instrument) {
+		return labelPrefix[instrument.ordinal()];
+	}
+}
@@ -2,9 +2,12 @@ package com.quantisan.JFUtil;
 
 import java.util.Currency;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.dukascopy.api.IAccount;
+import com.dukascopy.api.IMessage;
 import com.dukascopy.api.IOrder;
+import com.dukascopy.api.ITick;
 import com.dukascopy.api.Instrument;
 import com.dukascopy.api.JFException;
 
@@ -20,7 +23,20 @@ public enum JForexAccount {
 	private IAccount account;
 	//private double riskPct;
 	
-	private double maxEquity = Double.NEGATIVE_INFINITY;
+	// bits of the highest equity, updated from any thread
+	private final AtomicLong maxEquity = 
+		new AtomicLong(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+	private final EquityAnalytics analytics = 
+		new EquityAnalytics(60 * 60 * 1000L, 30 * 24, 1024);		// hourly returns over 30 days
+	private volatile long lastTickTime = Long.MIN_VALUE;
+	private final ExposureLedger ledger = new ExposureLedger();
+	private final EquityEstimator estimator = new EquityEstimator();
+	private volatile boolean isEstimating = false;
+	private volatile long reconcileInterval = 60000L;
+	// platform time of the latest tick or message, and of the last reconciliation
+	private volatile long eventTime = Long.MIN_VALUE;
+	private volatile long lastReconcile = Long.MIN_VALUE;
+	private volatile boolean isLedgerFed = false;		// onMessage is forwarded
 	//private HashMap<Currency, Instrument> pairs = new HashMap<Currency, Instrument>();
 
 	/**
@@ -72,11 +88,16 @@ public enum JForexAccount {
 	 */
 	public static void setAccount(IAccount account) {
 		INSTANCE.account = account;
+		INSTANCE.estimator.setBalance(account.getBalance());
 		INSTANCE.updateMaxEquity();
+		if (INSTANCE.lastTickTime != Long.MIN_VALUE)
+			INSTANCE.analytics.addSample(INSTANCE.lastTickTime, INSTANCE.getCurrentEquity());
 	}
 	
 	/**
 	 * Maximum drawdown is calculated from peak of realised + unrealised gains to current equity.
+	 * Once {@link #onTick(Instrument, ITick)} is fed, equity is estimated on every tick 
+	 * instead of waiting for the next account update.
 	 * 
 	 * @param maxDrawdown maximum drawdown in percent decimal, [0.0, 1.0]. 
 	 * For example, max drawdown of 5% should be entered as 0.05
@@ -92,8 +113,12 @@ public enum JForexAccount {
 	}
 	
 	private void updateMaxEquity() {
-		if(getEquity() > this.maxEquity)
-			this.maxEquity = getEquity();
+		double equity = getCurrentEquity();
+		long current;
+		do {
+			current = maxEquity.get();
+			if (!(equity > Double.longBitsToDouble(current)))	return;
+		} while (!maxEquity.compareAndSet(current, Double.doubleToLongBits(equity)));
 	}
 	
 	/**
@@ -101,7 +126,50 @@ public enum JForexAccount {
 	 * @return current drawdown in negative percentage, positive means profitable
 	 */
 	private double getDrawdown() {		
-		return 1 - getEquity()/INSTANCE.maxEquity;
+		return 1 - getCurrentEquity()/Double.longBitsToDouble(maxEquity.get());
+	}
+	
+	private double getCurrentEquity() {
+		return isEstimating ? estimator.getEquity() : getEquity();
+	}
+	
+	/**
+	 * Reprice open positions of the instrument for the equity estimate. 
+	 * Call from onTick, after {@link Pairer#onTick(Instrument, ITick)}.
+	 * 
+	 * @param instrument instrument of the tick
+	 * @param tick the latest tick
+	 * @throws JFException when reading the open positions fails
+	 */
+	public static void onTick(Instrument instrument, ITick tick) throws JFException {
+		INSTANCE.onEvent(tick.getTime());
+		if (!INSTANCE.isEstimating) {
+			reconcileExposure();		// positions opened before the strategy started
+			INSTANCE.isEstimating = true;
+		} else {
+			INSTANCE.reconcileIfDue();
+		}
+		INSTANCE.estimator.onTick(instrument, tick);
+		INSTANCE.updateMaxEquity();
+		INSTANCE.lastTickTime = tick.getTime();
+		INSTANCE.analytics.addSample(tick.getTime(), INSTANCE.getCurrentEquity());
+	}
+	
+	/**
+	 * @return statistics of the equity curve, sampled on every account 
+	 * update and on every tick fed to {@link #onTick(Instrument, ITick)}
+	 */
+	public static EquityAnalytics getAnalytics() {
+		return INSTANCE.analytics;
+	}
+	
+	/**
+	 * @return balance of the last account update plus the profit/loss of 
+	 * open positions at the latest tick, account equity until 
+	 * {@link #onTick(Instrument, ITick)} is fed
+	 */
+	public static double getEstimatedEquity() {
+		return INSTANCE.getCurrentEquity();
 	}
 	
 	/**
@@ -113,31 +181,104 @@ public enum JForexAccount {
 	}
 	
 	/**
-	 * Iterate through the list of opened orders and positions of an instrument
-	 * to calculate the cummulative monetary amount (in account currency) 
-	 * that is at risk. Only includes orders/positions with a stop loss price set.
+	 * Keep the amount at risk up to date with order events.  Call from onMessage.
+	 * 
+	 * @param message the message received by the strategy
+	 * @throws JFException when reconciling with the engine fails
+	 */
+	public static void onMessage(IMessage message) throws JFException {
+		INSTANCE.onEvent(message.getCreationTime());
+		if (!INSTANCE.isLedgerFed) {
+			reconcileExposure();		// orders placed before the first message
+			INSTANCE.isLedgerFed = true;
+		}
+		if (message.getOrder() != null) {
+			INSTANCE.ledger.update(message.getOrder());
+			INSTANCE.estimator.update(message.getOrder());
+		}
+		INSTANCE.reconcileIfDue();
+	}
+	
+	/**
+	 * Set how often the amount at risk is rebuilt from all orders of the 
+	 * engine, to correct for any missed event.  Default is one minute of 
+	 * platform time, i.e. of tick and message times also in a backtest. 
+	 * Checked from {@link #onMessage(IMessage)} and {@link #onTick(Instrument, ITick)}.
+	 * 
+	 * @param millis interval between reconciliations in milliseconds
+	 */
+	public static void setReconcileInterval(long millis) {
+		if (millis < 0L)
+			throw new IllegalArgumentException("millis must be non-negative");
+		INSTANCE.reconcileInterval = millis;
+	}
+	
+	/**
+	 * Rebuild the amount at risk and the positions of the equity estimate 
+	 * from all orders of the engine
+	 * 
+	 * @throws JFException
+	 */
+	public static void reconcileExposure() throws JFException {
+		INSTANCE.lastReconcile = INSTANCE.eventTime;
+		List<IOrder> orders = JForexContext.getEngine().getOrders();
+		INSTANCE.ledger.reset(orders);
+		INSTANCE.estimator.reset(orders);
+	}
+	
+	private void reconcileIfDue() throws JFException {
+		long last = lastReconcile;
+		if (last == Long.MIN_VALUE || eventTime - last >= reconcileInterval)
+			reconcileExposure();
+	}
+	
+	/**
+	 * Advance the platform time, which ticks of several instruments and 
+	 * messages may report slightly out of order
+	 */
+	private void onEvent(long time) {
+		if (time > eventTime)
+			eventTime = time;
+	}
+	
+	/**
+	 * Cumulative monetary amount (in account currency) at risk in the 
+	 * opened orders and positions of an instrument, kept up to date by 
+	 * {@link #onMessage(IMessage)}. Only includes orders/positions with 
+	 * a stop loss price set.  Reads the ledger only once onMessage is 
+	 * forwarded, until then every call rebuilds it from the engine.
 	 * 
 	 * @param instrument
 	 * @return amount in account currency at risk, only include orders with stop loss set
 	 * @throws JFException
 	 */
 	public static double getAmountAtRisk(Instrument instrument) throws JFException {
-		double totalValueExposed = 0;
-		
-		List<IOrder> orders = Orderer.getOrders(instrument);
-		for (IOrder order : orders) {
-			if (order.getState() == IOrder.State.FILLED || 
-				order.getState() == IOrder.State.OPENED ||
-				order.getState() == IOrder.State.CREATED) 
-			{			
-				double stop = order.getStopLossPrice();
-				if (stop != 0d) {
-					double pipsExposed = order.getOpenPrice() - order.getStopLossPrice();
-					pipsExposed *= order.isLong() ? 1d : -1d;
-					totalValueExposed += pipsExposed * order.getAmount() * 1e6d;
-				}
-			}
+		INSTANCE.reconcileUnlessFed();
+		return Pairer.convertValueToAccountCurrency(instrument, INSTANCE.ledger.get(instrument));		
+	}
+	
+	/**
+	 * @return amount in account currency at risk over all instruments, 
+	 * see {@link #getAmountAtRisk(Instrument)}
+	 * @throws JFException
+	 */
+	public static double getTotalAmountAtRisk() throws JFException {
+		INSTANCE.reconcileUnlessFed();
+		double total = 0d;
+		for (int i = 0; i < InstrumentInfo.getInstrumentCount(); i++) {
+			Instrument instrument = InstrumentInfo.getInstrument(i);
+			double exposure = INSTANCE.ledger.get(instrument);
+			if (exposure != 0d)
+				total += Pairer.convertValueToAccountCurrency(instrument, exposure);
 		}
-		return Pairer.convertValueToAccountCurrency(instrument, totalValueExposed);		
+		return total;
+	}
+	
+	/**
+	 * Without order events the ledger would read 0 at risk, so rebuild it
+	 */
+	private void reconcileUnlessFed() throws JFException {
+		if (!isLedgerFed)
+			reconcileExposure();
 	}
 }
@@ -18,9 +18,7 @@ public class LabelMaker {
 	 */
 	public static String getLabel (Instrument instrument) 
 	{
-		String iname = instrument.toString();
-		iname = iname.substring(0, 3) + iname.substring(4, 7);
-		String label = iname;
+		String label = InstrumentInfo.getLabelPrefix(instrument);
 
 		label += JForexContext.getTime(instrument);
 	
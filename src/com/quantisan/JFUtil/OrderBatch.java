@@ -0,0 +1,93 @@
+package com.quantisan.JFUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.dukascopy.api.IOrder;
+
+/**
+ * Orders of a basket submitted together in one task, in the order of
+ * their tickets.  The batch is done once every ticket has been submitted,
+ * with the orders in ticket order and null for a ticket that failed. 
+ * Cancelling the batch skips the tickets not submitted yet, whose 
+ * promises complete with null.
+ *
+ * @author plam
+ *
+ */
+public class OrderBatch extends OrderPromise<List<IOrder>> {
+	private final List<OrderTicket> tickets;
+	private final List<OrderStage> promises;
+	private final IOrder[] orders;
+	private final long createdNanos = System.nanoTime();
+	private volatile long startNanos, doneNanos;
+
+	OrderBatch(List<OrderTicket> tickets) {
+		this.tickets = Collections.unmodifiableList(new ArrayList<OrderTicket>(tickets));
+		promises = new ArrayList<OrderStage>(tickets.size());
+		for (int i = 0; i < tickets.size(); i++)
+			promises.add(new OrderStage());
+		orders = new IOrder[tickets.size()];
+	}
+
+	/**
+	 * @return tickets of the batch, in submission order
+	 */
+	public List<OrderTicket> getTickets() {
+		return tickets;
+	}
+
+	/**
+	 * @return number of tickets
+	 */
+	public int size() {
+		return tickets.size();
+	}
+
+	/**
+	 * @param index index of the ticket
+	 * @return order of the ticket once it is submitted, null if it failed
+	 */
+	public OrderStage getPromise(int index) {
+		return promises.get(index);
+	}
+
+	/**
+	 * @return nanoseconds from {@link Orderer#placeOrders(List)} until the
+	 * batch task started, -1 until then
+	 */
+	public long getDispatchLatency() {
+		long start = startNanos;
+		return (start == 0L) ? -1L : start - createdNanos;
+	}
+
+	/**
+	 * @return nanoseconds from {@link Orderer#placeOrders(List)} until the
+	 * last ticket was submitted, -1 until then
+	 */
+	public long getSubmitLatency() {
+		long done = doneNanos;
+		return (done == 0L) ? -1L : done - createdNanos;
+	}
+
+	void onStart() {
+		startNanos = System.nanoTime();
+	}
+
+	void onSubmitted(int index, IOrder order) {
+		orders[index] = order;
+		promises.get(index).complete(order);
+	}
+
+	/**
+	 * Complete the batch, after every ticket is submitted or skipped
+	 */
+	void onDone() {
+		for (OrderStage promise : promises)
+			promise.complete(null);		// no-op unless the ticket was skipped
+		doneNanos = System.nanoTime();
+		complete(Collections.unmodifiableList(Arrays.asList(orders.clone())));
+	}
+}
@@ -0,0 +1,137 @@
+package com.quantisan.JFUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dukascopy.api.IOrder;
+import com.dukascopy.api.IOrder.State;
+import com.dukascopy.api.Instrument;
+
+/**
+ * Active orders of the engine by label, instrument and state, kept current
+ * from order events so that queries do not scan every order.  Closed and
+ * cancelled orders leave the index, as they leave IEngine#getOrders.
+ *
+ * @author plam
+ *
+ */
+final class OrderIndex {
+	private final Map<String, Entry> byLabel = new LinkedHashMap<String, Entry>();
+	private final Map<String, IOrder>[] byInstrument;
+	private final EnumMap<State, Map<String, IOrder>> byState =
+			new EnumMap<State, Map<String, IOrder>>(State.class);
+	private final Map<String, IOrder> unprotected = new LinkedHashMap<String, IOrder>();
+
+	private static final class Entry {
+		private final IOrder order;
+		private State state;
+		private boolean isUnprotected;
+
+		Entry(IOrder order) {
+			this.order = order;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	OrderIndex() {
+		byInstrument = new Map[InstrumentInfo.getInstrumentCount()];
+		for (int i = 0; i < byInstrument.length; i++)
+			byInstrument[i] = new LinkedHashMap<String, IOrder>();
+		for (State state : State.values())
+			byState.put(state, new LinkedHashMap<String, IOrder>());
+	}
+
+	/**
+	 * Move an order to the sets of its current state
+	 *
+	 * @param order order of an event
+	 */
+	synchronized void update(IOrder order) {
+		String label = order.getLabel();
+		State state = order.getState();
+		Entry entry = byLabel.get(label);
+		if (entry != null) {
+			byState.get(entry.state).remove(label);
+			if (entry.isUnprotected)	unprotected.remove(label);
+		}
+		if (state == State.CLOSED || state == State.CANCELED) {
+			if (entry != null) {
+				byLabel.remove(label);
+				byInstrument[order.getInstrument().ordinal()].remove(label);
+			}
+			return;
+		}
+		if (entry == null || entry.order != order) {
+			entry = new Entry(order);
+			byLabel.put(label, entry);
+			byInstrument[order.getInstrument().ordinal()].put(label, order);
+		}
+		entry.state = state;
+		entry.isUnprotected = isUnprotected(order);
+		byState.get(state).put(label, order);
+		if (entry.isUnprotected)	unprotected.put(label, order);
+	}
+
+	/**
+	 * Rebuild the index from a full list of orders
+	 *
+	 * @param orders all active orders of the engine
+	 */
+	synchronized void reset(List<IOrder> orders) {
+		byLabel.clear();
+		for (Map<String, IOrder> map : byInstrument)
+			map.clear();
+		for (Map<String, IOrder> map : byState.values())
+			map.clear();
+		unprotected.clear();
+		for (IOrder order : orders)
+			update(order);
+	}
+
+	/**
+	 * @return the active order with the label, null if none
+	 */
+	synchronized IOrder get(String label) {
+		Entry entry = byLabel.get(label);
+		return (entry == null) ? null : entry.order;
+	}
+
+	synchronized List<IOrder> getAll() {
+		List<IOrder> orders = new ArrayList<IOrder>(byLabel.size());
+		for (Entry entry : byLabel.values())
+			orders.add(entry.order);
+		return orders;
+	}
+
+	synchronized List<IOrder> get(Instrument instrument) {
+		return copy(byInstrument[instrument.ordinal()].values());
+	}
+
+	synchronized List<IOrder> get(State state) {
+		return copy(byState.get(state).values());
+	}
+
+	/**
+	 * @return filled orders without a stop loss, or with one beyond the
+	 * open price
+	 */
+	synchronized List<IOrder> getUnprotected() {
+		return copy(unprotected.values());
+	}
+
+	private static List<IOrder> copy(Collection<IOrder> orders) {
+		return new ArrayList<IOrder>(orders);
+	}
+
+	private static boolean isUnprotected(IOrder order) {
+		if (order.getState() != State.FILLED)	return false;
+		double stop = order.getStopLossPrice();
+		double diff = stop - order.getOpenPrice();
+		diff *= order.isLong() ? 1d : -1d;
+		return diff < 0d || stop == 0d;
+	}
+}
@@ -0,0 +1,175 @@
+package com.quantisan.JFUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link Future} which is completed by an event, such as an order
+ * message, rather than by a task.  Listeners are called once it is done,
+ * so that nothing has to block waiting for it.
+ *
+ * @author plam
+ *
+ * @param <T> type of the result
+ */
+public class OrderPromise<T> implements Future<T> {
+	private T result;
+	private Throwable cause;
+	private boolean isDone, isCancelled;
+	private List<Listener<? super T>> listeners = new ArrayList<Listener<? super T>>(2);
+
+	/**
+	 * Receives the outcome of a promise
+	 */
+	public interface Listener<T> {
+		/**
+		 * @param result result of the promise
+		 */
+		void onComplete(T result);
+		/**
+		 * @param cause why the promise failed or was cancelled
+		 */
+		void onFailure(Throwable cause);
+	}
+
+	/**
+	 * Complete with a result and call the listeners on this thread
+	 *
+	 * @return false if already done
+	 */
+	boolean complete(T result) {
+		List<Listener<? super T>> pending;
+		synchronized (this) {
+			if (isDone)		return false;
+			this.result = result;
+			pending = finish();
+		}
+		for (Listener<? super T> listener : pending)
+			notifyComplete(listener, result);
+		return true;
+	}
+
+	/**
+	 * Fail with a cause and call the listeners on this thread
+	 *
+	 * @return false if already done
+	 */
+	boolean fail(Throwable cause) {
+		List<Listener<? super T>> pending;
+		synchronized (this) {
+			if (isDone)		return false;
+			this.cause = cause;
+			pending = finish();
+		}
+		for (Listener<? super T> listener : pending)
+			notifyFailure(listener, cause);
+		return true;
+	}
+
+	/**
+	 * Call the listener once done, at once on this thread if already done
+	 *
+	 * @param listener receives the result or the cause of failure
+	 * @return this promise
+	 */
+	public OrderPromise<T> addListener(Listener<? super T> listener) {
+		synchronized (this) {
+			if (!isDone) {
+				listeners.add(listener);
+				return this;
+			}
+		}
+		if (cause == null)
+			notifyComplete(listener, result);
+		else
+			notifyFailure(listener, cause);
+		return this;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		List<Listener<? super T>> pending;
+		CancellationException ex = new CancellationException("promise cancelled");
+		synchronized (this) {
+			if (isDone)		return false;
+			isCancelled = true;
+			cause = ex;
+			pending = finish();
+		}
+		for (Listener<? super T> listener : pending)
+			notifyFailure(listener, ex);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return isCancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return isDone;
+	}
+
+	@Override
+	public synchronized T get() throws InterruptedException, ExecutionException {
+		while (!isDone)
+			wait();
+		return getResult();
+	}
+
+	@Override
+	public synchronized T get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!isDone) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0L)
+				throw new TimeoutException("promise not done after " + timeout + " " + unit);
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return getResult();
+	}
+
+	private T getResult() throws ExecutionException {
+		if (isCancelled)
+			throw (CancellationException)cause;
+		if (cause != null)
+			throw new ExecutionException(cause);
+		return result;
+	}
+
+	/**
+	 * Mark as done while holding the lock
+	 *
+	 * @return listeners to call after releasing the lock
+	 */
+	private List<Listener<? super T>> finish() {
+		isDone = true;
+		notifyAll();
+		List<Listener<? super T>> pending = listeners;
+		listeners = null;
+		return pending;
+	}
+
+	private static <T> void notifyComplete(Listener<T> listener, T result) {
+		try {
+			listener.onComplete(result);
+		} catch (RuntimeException ex) {
+			Printer.printErr("OrderPromise listener failed.", ex);
+		}
+	}
+
+	private static <T> void notifyFailure(Listener<T> listener, Throwable cause) {
+		try {
+			listener.onFailure(cause);
+		} catch (RuntimeException ex) {
+			Printer.printErr("OrderPromise listener failed.", ex);
+		}
+	}
+}
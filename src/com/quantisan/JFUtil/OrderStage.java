@@ -0,0 +1,137 @@
+package com.quantisan.JFUtil;
+
+import com.dukascopy.api.IOrder;
+
+/**
+ * Promise of an order which chains further changes of the order, e.g.
+ * <pre>
+ * Orderer.placeOrder(ticket).thenSetStop(stop).thenTrail(20d);
+ * </pre>
+ * Each stage starts from the order event which completes the one before,
+ * so no thread waits in between.  A stage of a failed order, or of a
+ * change that could not be made, completes with null as the Futures of
+ * {@link Orderer} do, and later stages pass the null on.
+ *
+ * @author plam
+ *
+ */
+public class OrderStage extends OrderPromise<IOrder> {
+
+	/**
+	 * Set the stop loss once the order is filled
+	 *
+	 * @param newStop new stop loss price
+	 * @return stage completed once the change is accepted
+	 * @see Orderer#setStopLoss(IOrder, double, double)
+	 */
+	public OrderStage thenSetStop(double newStop) {
+		return thenSetStop(newStop, 0d);
+	}
+
+	/**
+	 * Set the stop loss and trail step once the order is filled
+	 *
+	 * @param newStop new stop loss price
+	 * @param trailStep trailing step in pips, 0 or at least 10
+	 * @return stage completed once the change is accepted
+	 * @see Orderer#setStopLoss(IOrder, double, double)
+	 */
+	public OrderStage thenSetStop(final double newStop, final double trailStep) {
+		final OrderStage next = new OrderStage();
+		addListener(new Step(next) {
+			@Override OrderStage apply(IOrder order) {
+				return Orderer.setStopLoss(order, newStop, trailStep);
+			}
+		});
+		return next;
+	}
+
+	/**
+	 * Trail the current stop loss once the order is filled, unless the
+	 * order already has a trailing step
+	 *
+	 * @param trailStep trailing step in pips, at least 10
+	 * @return stage completed once the change is accepted, or at once if
+	 * there is nothing to change
+	 * @see Orderer#setTrailStep(IOrder, double)
+	 */
+	public OrderStage thenTrail(final double trailStep) {
+		final OrderStage next = new OrderStage();
+		addListener(new Step(next) {
+			@Override OrderStage apply(IOrder order) {
+				if (trailStep < 10d || order.getTrailingStep() != 0d) {
+					next.complete(order);
+					return null;
+				}
+				return Orderer.setStopLoss(order, order.getStopLossPrice(), trailStep);
+			}
+		});
+		return next;
+	}
+
+	/**
+	 * Trail the stop loss on the client once the order is filled, with 
+	 * trail and step that may be below 10 pips, unless the order has a 
+	 * broker trailing step
+	 *
+	 * @param trailPips distance of the stop from the best price, in pips
+	 * @param stepPips least move of the stop, in pips, at least 0.1
+	 * @return stage completed once trailing has started
+	 * @see Orderer#trail(IOrder, double, double)
+	 */
+	public OrderStage thenTrail(final double trailPips, final double stepPips) {
+		TrailingEngine.checkArguments(trailPips, stepPips);
+		final OrderStage next = new OrderStage();
+		addListener(new Step(next) {
+			@Override OrderStage apply(IOrder order) {
+				return Orderer.trail(order, trailPips, stepPips);
+			}
+		});
+		return next;
+	}
+
+	/**
+	 * Starts the next change of the order and forwards its outcome
+	 */
+	private abstract static class Step implements Listener<IOrder> {
+		private final OrderStage next;
+
+		Step(OrderStage next) {
+			this.next = next;
+		}
+
+		/**
+		 * @return stage of the change, null if next is already completed
+		 */
+		abstract OrderStage apply(IOrder order);
+
+		@Override
+		public void onComplete(IOrder order) {
+			if (order == null) {
+				next.complete(null);
+				return;
+			}
+			OrderStage stage;
+			try {
+				stage = apply(order);
+			} catch (RuntimeException ex) {
+				next.fail(ex);
+				return;
+			}
+			if (stage == null)	return;
+			stage.addListener(new Listener<IOrder>() {
+				@Override public void onComplete(IOrder result) {
+					next.complete(result);
+				}
+				@Override public void onFailure(Throwable cause) {
+					next.fail(cause);
+				}
+			});
+		}
+
+		@Override
+		public void onFailure(Throwable cause) {
+			next.fail(cause);
+		}
+	}
+}
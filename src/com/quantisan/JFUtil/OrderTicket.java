@@ -140,11 +140,11 @@ public class OrderTicket {
 		label = builder.label;
 		instrument = builder.instrument;
 		command = builder.command;
-		lot = Rounding.lot(builder.lot);
-		price = Rounding.pip(instrument, builder.price);
+		units = FixedPoint.toUnits(builder.lot);
+		price = FixedPoint.toTenthPips(instrument, builder.price);
 		slippage = builder.slippage;
-		stopLossPrice = Rounding.pip(instrument, builder.stopLossPrice);
-		takeProfitPrice = Rounding.pip(instrument, builder.takeProfitPrice);
+		stopLossPrice = FixedPoint.toTenthPips(instrument, builder.stopLossPrice);
+		takeProfitPrice = FixedPoint.toTenthPips(instrument, builder.takeProfitPrice);
 		goodTillTime = builder.goodTillTime;
 		comment = builder.comment;
 	}
@@ -162,12 +162,24 @@ public class OrderTicket {
 	 * @return amount is implicitly rounded with {@link Rounder#lot(double) Rounder.lot}
 	 */
 	public double getLot() {
-		return lot;
+		return FixedPoint.toLot(units);
+	}
+	/**
+	 * @return amount in units, see {@link FixedPoint}
+	 */
+	public long getUnits() {
+		return units;
 	}
 	/**
 	 * @return price is implicitly rounded with {@link Rounder#pip(Instrument, double) Rounder.pip}
 	 */
 	public double getPrice() {
+		return FixedPoint.toPrice(instrument, price);
+	}
+	/**
+	 * @return price in tenths of a pip, see {@link FixedPoint}
+	 */
+	public long getPriceTenthPips() {
 		return price;
 	}
 	public double getSlippage() {
@@ -177,12 +189,24 @@ public class OrderTicket {
 	 * @return stop loss price is implicitly rounded with {@link Rounder#pip(Instrument, double) Rounder.pip}
 	 */
 	public double getStopLossPrice() {
+		return FixedPoint.toPrice(instrument, stopLossPrice);
+	}
+	/**
+	 * @return stop loss price in tenths of a pip, 0 for none
+	 */
+	public long getStopLossTenthPips() {
 		return stopLossPrice;
 	}
 	/**
 	 * @return take profit price is implicitly rounded with {@link Rounder#pip(Instrument, double) Rounder.pip}
 	 */
 	public double getTakeProfitPrice() {
+		return FixedPoint.toPrice(instrument, takeProfitPrice);
+	}
+	/**
+	 * @return take profit price in tenths of a pip, 0 for none
+	 */
+	public long getTakeProfitTenthPips() {
 		return takeProfitPrice;
 	}
 	public long getGoodTillTime() {
@@ -195,11 +219,12 @@ public class OrderTicket {
 	private final String label;
 	private final Instrument instrument;
 	private final IEngine.OrderCommand command;
-	private final double lot;
-	private final double price;
+	private final long units;
+	// prices in tenths of a pip
+	private final long price;
 	private final double slippage;
-	private final double stopLossPrice;
-	private final double takeProfitPrice;
+	private final long stopLossPrice;
+	private final long takeProfitPrice;
 	private final long goodTillTime;
 	private final String comment;
 }
@@ -0,0 +1,177 @@
+package com.quantisan.JFUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+import com.dukascopy.api.IMessage;
+import com.dukascopy.api.IOrder;
+import com.dukascopy.api.IOrder.State;
+
+/**
+ * Completes promises of orders from their messages, instead of polling
+ * each order with waitForUpdate.  A promise still pending after the
+ * timeout falls back to the order's current state, in case onMessage is
+ * not forwarded by the strategy.  The timeout is cancelled once the 
+ * promise is done.
+ *
+ * @author plam
+ *
+ */
+final class OrderTracker {
+	private final Map<String, List<Waiter>> waiters = new HashMap<String, List<Waiter>>();
+	private volatile long timeout = 10000L;
+
+	private final class Waiter implements OrderPromise.Listener<IOrder> {
+		private final IOrder order;
+		private final boolean isChange;		// else waits for a fill
+		private final OrderPromise<IOrder> promise = new OrderPromise<IOrder>();
+		private volatile ScheduledFuture<?> timer;
+
+		Waiter(IOrder order, boolean isChange) {
+			this.order = order;
+			this.isChange = isChange;
+		}
+
+		@Override public void onComplete(IOrder result) {
+			onDone();
+		}
+
+		@Override public void onFailure(Throwable cause) {
+			onDone();
+		}
+
+		/**
+		 * Stop waiting, also if the promise was cancelled by its holder
+		 */
+		private void onDone() {
+			remove(this);
+			Scheduler.cancel(timer);
+		}
+	}
+
+	/**
+	 * @param millis time to wait for a message before falling back to the
+	 * order's state
+	 */
+	void setTimeout(long millis) {
+		if (millis < 1L)
+			throw new IllegalArgumentException("timeout must be positive");
+		timeout = millis;
+	}
+
+	/**
+	 * @return promise completed once the order is filled or opened, failed
+	 * if it is closed or cancelled first
+	 */
+	OrderPromise<IOrder> whenFilled(IOrder order) {
+		Waiter waiter = new Waiter(order, false);
+		if (!settle(waiter, null)) {
+			add(waiter);
+			settle(waiter, null);		// in case a message came in meanwhile
+		}
+		return waiter.promise;
+	}
+
+	/**
+	 * Register before requesting a change of the order
+	 *
+	 * @return promise completed by the next accepted change of the order,
+	 * failed if the change is rejected
+	 */
+	OrderPromise<IOrder> whenChanged(IOrder order) {
+		Waiter waiter = new Waiter(order, true);
+		add(waiter);
+		return waiter.promise;
+	}
+
+	/**
+	 * Complete the promises the message settles
+	 */
+	void onMessage(IMessage message) {
+		IOrder order = message.getOrder();
+		if (order == null)		return;
+		List<Waiter> settled = new ArrayList<Waiter>(2);
+		synchronized (this) {
+			List<Waiter> list = waiters.get(order.getLabel());
+			if (list == null)	return;
+			for (Iterator<Waiter> it = list.iterator(); it.hasNext(); ) {
+				Waiter waiter = it.next();
+				if (waiter.promise.isDone() || isSettledBy(waiter, message)) {
+					it.remove();
+					settled.add(waiter);
+				}
+			}
+			if (list.isEmpty())
+				waiters.remove(order.getLabel());
+		}
+		for (Waiter waiter : settled)
+			settle(waiter, message);
+	}
+
+	private void add(final Waiter waiter) {
+		synchronized (this) {
+			String label = waiter.order.getLabel();
+			List<Waiter> list = waiters.get(label);
+			if (list == null) {
+				list = new ArrayList<Waiter>(2);
+				waiters.put(label, list);
+			}
+			list.add(waiter);
+		}
+		waiter.timer = Scheduler.schedule(new Runnable() {
+			@Override public void run() {
+				if (remove(waiter) && !settle(waiter, null)) {
+					Printer.println(waiter.order.getLabel() + " -- no order message after "
+									+ timeout + " ms, continuing");
+					waiter.promise.complete(waiter.order);
+				}
+			}
+		}, timeout);
+		waiter.promise.addListener(waiter);
+	}
+
+	private synchronized boolean remove(Waiter waiter) {
+		List<Waiter> list = waiters.get(waiter.order.getLabel());
+		if (list == null || !list.remove(waiter))	return false;
+		if (list.isEmpty())
+			waiters.remove(waiter.order.getLabel());
+		return true;
+	}
+
+	private static boolean isSettledBy(Waiter waiter, IMessage message) {
+		State state = waiter.order.getState();
+		if (state == State.CLOSED || state == State.CANCELED)
+			return true;
+		if (waiter.isChange)
+			return message.getType() == IMessage.Type.ORDER_CHANGED_OK
+					|| message.getType() == IMessage.Type.ORDER_CHANGED_REJECTED;
+		return state == State.FILLED || state == State.OPENED;
+	}
+
+	/**
+	 * Complete or fail the promise from the order's state and the message
+	 *
+	 * @param message message which settled it, null to check the state only
+	 * @return true if the promise is done
+	 */
+	private static boolean settle(Waiter waiter, IMessage message) {
+		IOrder order = waiter.order;
+		if (waiter.isChange && message != null) {
+			if (message.getType() == IMessage.Type.ORDER_CHANGED_OK)
+				waiter.promise.complete(order);
+			else if (message.getType() == IMessage.Type.ORDER_CHANGED_REJECTED)
+				waiter.promise.fail(new IllegalStateException(order.getLabel()
+									+ " -- change rejected: " + message.getContent()));
+		}
+		State state = order.getState();
+		if (state == State.CLOSED || state == State.CANCELED)
+			waiter.promise.fail(new IllegalStateException(order.getLabel() + " is " + state));
+		else if (!waiter.isChange && (state == State.FILLED || state == State.OPENED))
+			waiter.promise.complete(order);
+		return waiter.promise.isDone();
+	}
+}
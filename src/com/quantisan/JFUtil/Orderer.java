@@ -1,12 +1,11 @@
 package com.quantisan.JFUtil;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 import com.dukascopy.api.*;
-import com.dukascopy.api.IOrder.State;
 
 /**
  * Executing orders in separate threads
@@ -15,6 +14,133 @@ import com.dukascopy.api.IOrder.State;
 public enum Orderer {	
 	INSTANCE;
 	
+	private final OrderTracker tracker = new OrderTracker();
+	private final OrderIndex index = new OrderIndex();
+	private final StopQueue stops = new StopQueue(tracker);
+	private final TrailingEngine trailing = new TrailingEngine();
+	private volatile boolean isIndexed;
+	
+	/**
+	 * Keep the order index current and complete pending stop changes 
+	 * from order events.  Call from onMessage.
+	 * 
+	@param	message the message received by the strategy
+	 *
+	@throws JFException when building the index from the engine fails
+	 */
+	public static void onMessage(IMessage message) throws JFException {
+		if (!INSTANCE.isIndexed)
+			reindex();
+		IOrder order = message.getOrder();
+		if (order != null) {
+			INSTANCE.index.update(order);
+			if (order.getState() == IOrder.State.CLOSED 
+					|| order.getState() == IOrder.State.CANCELED)
+				INSTANCE.trailing.remove(order.getLabel());
+		}
+		INSTANCE.tracker.onMessage(message);
+	}
+	
+	/**
+	 * Move the stops of orders trailed by {@link #trail(IOrder, double, double)}.  
+	 * Call from onTick.
+	 * 
+	@param	instrument instrument of the tick
+	 *
+	@param	tick the tick received by the strategy
+	 */
+	public static void onTick(Instrument instrument, ITick tick) {
+		INSTANCE.trailing.onTick(instrument, tick);
+	}
+	
+	/**
+	 * Trail the stop loss of an order on the client once it is filled, 
+	 * instead of by the broker as {@link #setTrailStep(IOrder, double)} 
+	 * does, so that trail and step may be below 10 pips.  The stop is 
+	 * only changed when the price has moved it by at least the step. 
+	 * An order with a broker trailing step is not trailed, as the stop 
+	 * changes are sent without one and would clear it.
+	 * 
+	@param	order the order to be trailed, from its current stop loss
+	 *
+	@param	trailPips distance of the stop from the best price, in pips
+	 *
+	@param	stepPips least move of the stop in pips, at least 0.1
+	 *
+	@return	the order once trailing has started, null if it was not filled 
+	 * or has a trailing step
+	 */
+	public static OrderStage trail(IOrder order, final double trailPips, 
+			final double stepPips) {
+		TrailingEngine.checkArguments(trailPips, stepPips);
+		final OrderStage result = new OrderStage();
+		INSTANCE.tracker.whenFilled(order).addListener(new OrderPromise.Listener<IOrder>() {
+			@Override public void onComplete(IOrder filled) {
+				try {
+					INSTANCE.trailing.trail(filled, trailPips, stepPips);
+				} catch (IllegalArgumentException ex) {
+					Printer.println("trail -- " + ex.getMessage());
+					result.complete(null);
+					return;
+				}
+				result.complete(filled);
+			}
+			@Override public void onFailure(Throwable cause) {
+				Printer.println("trail -- " + cause.getMessage());
+				result.complete(null);
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Stop trailing an order on the client, leaving its stop where it is
+	 * 
+	@param	order the order trailed by {@link #trail(IOrder, double, double)}
+	 *
+	@return	false if the order was not trailed
+	 */
+	public static boolean stopTrailing(IOrder order) {
+		return INSTANCE.trailing.remove(order.getLabel());
+	}
+	
+	/**
+	 * @return number of orders trailed on the client
+	 */
+	public static int getTrailedCount() {
+		return INSTANCE.trailing.size();
+	}
+	
+	/**
+	 * @return number of stop moves of orders trailed on the client, before
+	 * coalescing
+	 */
+	public static long getTrailModifications() {
+		return INSTANCE.trailing.getModificationCount();
+	}
+	
+	/**
+	 * Rebuild the order index from all orders of the engine, to correct 
+	 * for any missed event.  Done on the first call to 
+	 * {@link #onMessage(IMessage)}; until then queries go to the engine.
+	 * 
+	@throws JFException
+	 */
+	public static void reindex() throws JFException {
+		INSTANCE.index.reset(JForexContext.getEngine().getOrders());
+		INSTANCE.isIndexed = true;
+	}
+	
+	/**
+	 * Set how long to wait for an order event before falling back to 
+	 * the order's state, default is 10 seconds
+	 * 
+	@param	millis timeout in milliseconds
+	 */
+	public static void setEventTimeout(long millis) {
+		INSTANCE.tracker.setTimeout(millis);
+	}
+	
 	/**
 	 * Set a trail step for an order
 	 * 
@@ -25,7 +151,7 @@ public enum Orderer {
 	 */
 	public static void setTrailStep(IOrder order, double trailStep) 
 	{	// TODO use OrderTicket
-		(new Thread(INSTANCE.new TrailStepTask(order, trailStep))).start();
+		Scheduler.execute(INSTANCE.new TrailStepTask(order, trailStep));
 	}
 	
 	/**
@@ -38,11 +164,12 @@ public enum Orderer {
 	 */
 	public static void setTrailStep(Future<IOrder> future, double trailStep) 
 	{ 
-		(new Thread(INSTANCE.new TrailStepTask(future, trailStep))).start();
+		Scheduler.whenDone(future, INSTANCE.new TrailStepTask(null, trailStep));
 	}
 	
 	/**
-	 * Set the stop loss and trail step of an order in a new Thread
+	 * Set the stop loss and trail step of an order once it is filled. 
+	 * Only the newest of several pending changes of an order is sent.
 	 * 
 	@param	order the order to be changed
 	 *
@@ -53,14 +180,15 @@ public enum Orderer {
 	@see IOrder#setStopLossPrice(double, OfferSide, double)
 	 *
 	*/
-	public static Future<IOrder> setStopLoss(IOrder order, double newStop, 
+	public static OrderStage setStopLoss(IOrder order, double newStop, 
 			double trailStep) {		
-		StopTask task = INSTANCE.new StopTask(order, newStop, trailStep);
-		return JForexContext.getContext().executeTask(task);
+		StopTask task = INSTANCE.new StopTask(newStop, trailStep);
+		task.onDone(order);
+		return task.result;
 	}
 	
 	/**
-	 * Set the stop loss and trail step of an order in a new Thread
+	 * Set the stop loss and trail step of a {@link Future} order once it is filled
 	 * 
 	@param	future the future order to be changed
 	 *
@@ -71,25 +199,66 @@ public enum Orderer {
 	@see IOrder#setStopLossPrice(double, OfferSide, double)
 	 *
 	*/
-	public static Future<IOrder> setStopLoss(Future<IOrder> future, double newStop, 
+	public static OrderStage setStopLoss(Future<IOrder> future, double newStop, 
 			double trailStep) {		
-		StopTask task = INSTANCE.new StopTask(future, newStop, trailStep);
-		return JForexContext.getContext().executeTask(task);
+		StopTask task = INSTANCE.new StopTask(newStop, trailStep);
+		Scheduler.whenDone(future, task);
+		return task.result;
 	}
 
+	/**
+	 * @return number of stop loss changes sent to the engine
+	 */
+	public static long getStopChangesSent() {
+		return INSTANCE.stops.getSentCount();
+	}
+	
+	/**
+	 * Stop loss changes are not sent if they would not change the order, 
+	 * or if a newer change of the order replaced them while an earlier 
+	 * one was waiting to be acknowledged
+	 * 
+	 * @return number of stop loss changes not sent
+	 */
+	public static long getStopChangesSaved() {
+		return INSTANCE.stops.getSkippedCount() + INSTANCE.stops.getCoalescedCount();
+	}
+	
 	/**
 	 * Send an order in its own separate thread
 	 * 
 	 * @param ticket encapsulated order information
 	 *
+	 * @return the order once submitted, null if it failed, which chains 
+	 * further changes such as {@link OrderStage#thenSetStop(double)}
+	 *
 	 * @see IEngine#submitOrder(String, Instrument, com.dukascopy.api.IEngine.OrderCommand, double, double, double, double, double, long, String)
 	**/
-	public static Future<IOrder> placeOrder(OrderTicket ticket) 
+	public static OrderStage placeOrder(OrderTicket ticket) 
 	{		
 		OrderTask task = INSTANCE.new OrderTask(ticket);
-		return JForexContext.getContext().executeTask(task);	
+		JForexContext.getContext().executeTask(task);	
+		return task.result;
 	}	
 	
+	/**
+	 * Send a basket of orders in one task, in the order of the list, 
+	 * instead of one task per order
+	 * 
+	 * @param tickets encapsulated order information
+	 * 
+	 * @return the batch, with a promise of the order of each ticket and 
+	 * its submit latency
+	 * 
+	 * @see #placeOrder(OrderTicket)
+	**/
+	public static OrderBatch placeOrders(List<OrderTicket> tickets) 
+	{
+		OrderBatch batch = new OrderBatch(tickets);
+		JForexContext.getContext().executeTask(INSTANCE.new BatchTask(batch));
+		return batch;
+	}
+	
 	/**
 	 * Close an order at market price
 	 * 
@@ -128,6 +297,8 @@ public enum Orderer {
 	@return	a list of orders for the instrument
 	*/
 	public static List<IOrder> getOrders(Instrument instrument) throws JFException {
+		if (INSTANCE.isIndexed)
+			return INSTANCE.index.get(instrument);
 		return JForexContext.getEngine().getOrders(instrument);
 	}
 	
@@ -137,19 +308,61 @@ public enum Orderer {
 	@return	a list of orders
 	*/
 	public static List<IOrder> getOrders() throws JFException {
+		if (INSTANCE.isIndexed)
+			return INSTANCE.index.getAll();
 		return JForexContext.getEngine().getOrders();
 	}
+	
+	/**
+	 * Get a list of orders in a particular state
+	 * 
+	@param	state	e.g. FILLED
+	 *
+	@return	a list of orders in the state
+	*/
+	public static List<IOrder> getOrders(IOrder.State state) throws JFException {
+		if (INSTANCE.isIndexed)
+			return INSTANCE.index.get(state);
+		List<IOrder> orders = new ArrayList<IOrder>();
+		for (IOrder order : JForexContext.getEngine().getOrders()) {
+			if (order.getState() == state)
+				orders.add(order);
+		}
+		return orders;
+	}
+	
+	/**
+	 * Get an active order by its label, e.g. to check that it belongs 
+	 * to this strategy
+	 * 
+	@param	label	label of the order
+	 *
+	@return	the order, null if there is no active order with the label
+	*/
+	public static IOrder getOrder(String label) throws JFException {
+		if (INSTANCE.isIndexed)
+			return INSTANCE.index.get(label);
+		return JForexContext.getEngine().getOrder(label);
+	}
+	
+	/**
+	 * Get a list of filled orders that have a risk exposure, i.e. no stop 
+	 * loss, or a stop price below opening price for long, and vice versa
+	 * 
+	@return	a list of risk-exposed filled orders
+	*/
+	public static List<IOrder> getExposed() throws JFException {
+		if (INSTANCE.isIndexed)
+			return INSTANCE.index.getUnprotected();
+		return Ordering.getExposed(getOrders());
+	}
 
-	private class TrailStepTask implements Runnable {
-		private Future<IOrder> future;
+	/**
+	 * Sets the trailing step on a scheduler thread, once the order is known
+	 */
+	private class TrailStepTask implements Runnable, Scheduler.Callback<IOrder> {
 		private IOrder order;
 		private double trailStep;
-	
-		public TrailStepTask(Future<IOrder> future, double trailStep) 
-		{
-			this.future = future;
-			this.trailStep = trailStep;
-		}
 		
 		public TrailStepTask(IOrder order, double trailStep) 
 		{
@@ -157,98 +370,66 @@ public enum Orderer {
 			this.trailStep = trailStep;
 		}
 		
+		@Override
+		public void onDone(IOrder result) {
+			this.order = result;
+			if (order != null)		// null if the order could not be placed
+				run();
+		}
+		
 		@Override
 		public void run() {			
-			if (future != null) {
-				try {
-					order = future.get();		// wait for order
-				} catch (InterruptedException ex) {
-					Printer.printErr("TrailStepTask interrupted.", ex);
-	
-				} catch (ExecutionException ex) {
-					Printer.printErr("TrailStepTask cannot execute.", ex);
-				}
-			}
-			
 			// set trailing step only if trailStep is >= 10d and 
 			// there is no trailing step in order already
 			if (trailStep < 10d || order.getTrailingStep() != 0d)
 				return;			
 			
-			// TODO overcome "change to same stop loss price warning"
 			setStopLoss(order, order.getStopLossPrice(), this.trailStep);			
 		}
 	}
 
 	/**
-	 * Inner class for sending stop order in a Callable thread
+	 * Inner class for queueing a stop order, once order events show that 
+	 * the order is filled
 	 * 
 	 */
-	private class StopTask implements Callable<IOrder> {
-		private IOrder order;
-		private Future<IOrder> future;
+	private class StopTask implements Scheduler.Callback<IOrder>, 
+			OrderPromise.Listener<IOrder> {
+		private final OrderStage result = new OrderStage();
 		private double newStop, trailStep;	
 		
 		/**
 		 * Construct a StopTask
 		 * 
-		@param order the order to be updated
-		 *
 		@param newStop the price of the new stop loss
 		 *
 		@param trailStep step size of the trailing order
 		 *
 		@see IOrder#setStopLossPrice(double, OfferSide, double)
 		 */
-		public StopTask(IOrder order, double newStop, double trailStep) 
+		public StopTask(double newStop, double trailStep) 
 		{
-			this.order = order;
 			this.newStop = newStop;
 			this.trailStep = trailStep;
 		}
 		
-		public StopTask(Future<IOrder> future, double newStop, double trailStep) 
-		{
-			this.future = future;
-			this.newStop = newStop;
-			this.trailStep = trailStep;
+		@Override
+		public void onDone(IOrder order) {		// order is known
+			if (order == null)
+				result.complete(null);
+			else
+				tracker.whenFilled(order).addListener(this);
 		}
 		
-		public IOrder call() {
-			if (future != null) {
-				try {
-					this.order = this.future.get();		// wait for order
-				} catch (InterruptedException ex) {
-					Printer.printErr("TrailStepTask interrupted.", ex);
-	
-				} catch (ExecutionException ex) {
-					Printer.printErr("TrailStepTask cannot execute.", ex);
-				}
-			}
-			
-			for (int i = 0; i < 10; i++) {		// wait for order in correct state
-				if (order.getState() != State.FILLED && order.getState() != State.OPENED) {
-					order.waitForUpdate(1000);
-				}
-				else	break;
-			}
-			
-			OfferSide side = order.isLong() ? OfferSide.BID : OfferSide.ASK;
-			
-			this.newStop = Rounding.pip(order.getInstrument(), newStop);
-			this.trailStep = Math.round(this.trailStep);
-			
-			try {
-				// TODO check if order is in Filled state?
-				order.setStopLossPrice(newStop, side, trailStep);
-				order.waitForUpdate(1000);
-			}
-			catch (JFException ex) {				
-				Printer.printErr(order.getLabel() + "-- couldn't set newStop: " + 
-								newStop + ", trailStep: " + trailStep, ex);
-				return null;
-			}
-			return order;
+		@Override
+		public void onComplete(IOrder order) {	// order is filled
+			stops.submit(order, newStop, trailStep, result);
+		}
+		
+		@Override
+		public void onFailure(Throwable cause) {
+			Printer.println("StopTask -- " + cause.getMessage());
+			result.complete(null);
 		}
 	}
 	
@@ -258,6 +439,7 @@ public enum Orderer {
 	 */
 	private class OrderTask implements Callable<IOrder>{
     	private OrderTicket ticket;
+    	private final OrderStage result = new OrderStage();
         
 		/**
 		 * Construct a BuyTask
@@ -279,23 +461,59 @@ public enum Orderer {
     	public IOrder call() {
     		IOrder order;
     		try {
-    			order = JForexContext.getEngine().submitOrder(
-    						ticket.getLabel(), 
-    						ticket.getInstrument(), 
-    						ticket.getOrderCmd(), 
-	    					ticket.getLot(), 
-	    					ticket.getPrice(), 
-	    					ticket.getSlippage(), 
-	        				ticket.getStopLossPrice(),
-	        				ticket.getTakeProfitPrice(),
-	        				ticket.getGoodTillTime(),
-	        				ticket.getComment());
-    		}
-    		catch (JFException ex) {
-				Printer.printErr(ticket.getLabel() + " -- cannot place order.", ex);
-				return null;
+    			order = submit(ticket);
+    		} catch (RuntimeException ex) {
+    			result.fail(ex);
+    			throw ex;
     		}
+    		result.complete(order);
     		return order;
     	}
     }
+	
+	/**
+	 * Inner class for sending a basket of orders in a Callable thread
+	 * 
+	 */
+	private class BatchTask implements Callable<OrderBatch> {
+		private final OrderBatch batch;
+		
+		public BatchTask(OrderBatch batch) 
+		{
+			this.batch = batch;
+		}
+		
+		public OrderBatch call() {
+			batch.onStart();
+			try {
+				for (int i = 0; i < batch.size() && !batch.isCancelled(); i++)
+					batch.onSubmitted(i, submit(batch.getTickets().get(i)));
+			} finally {
+				batch.onDone();
+			}
+			return batch;
+		}
+	}
+	
+	private static IOrder submit(OrderTicket ticket) {
+		IOrder order;
+		try {
+			order = JForexContext.getEngine().submitOrder(
+						ticket.getLabel(), 
+						ticket.getInstrument(), 
+						ticket.getOrderCmd(), 
+						ticket.getLot(), 
+						ticket.getPrice(), 
+						ticket.getSlippage(), 
+						ticket.getStopLossPrice(),
+						ticket.getTakeProfitPrice(),
+						ticket.getGoodTillTime(),
+						ticket.getComment());
+		}
+		catch (JFException ex) {
+			Printer.printErr(ticket.getLabel() + " -- cannot place order.", ex);
+			return null;
+		}
+		return order;
+	}
 }
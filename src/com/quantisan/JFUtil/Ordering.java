@@ -5,7 +5,6 @@ import java.util.Calendar;
 import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 import com.dukascopy.api.*;
@@ -47,7 +46,7 @@ import com.dukascopy.api.IOrder.State;
 	 */
 	public void setTrailStep(IOrder order, double trailStep) 
 	{		
-		(new Thread(new TrailStepTask(order, trailStep))).start();
+		Scheduler.execute(new TrailStepTask(order, trailStep));
 	}
 	
 	/**
@@ -60,7 +59,7 @@ import com.dukascopy.api.IOrder.State;
 	 */
 	public void setTrailStep(Future<IOrder> future, double trailStep) 
 	{ 
-		(new Thread(new TrailStepTask(future, trailStep))).start();
+		Scheduler.whenDone(future, new TrailStepTask(null, trailStep));
 	}
 
 	/**
@@ -85,6 +84,8 @@ import com.dukascopy.api.IOrder.State;
 	 *  
 
 	@return a list of risk-exposed filled orders
+	 *
+	@see Orderer#getExposed()
 	 */
 	public static List<IOrder> getExposed(List<IOrder> orders) {
 		List<IOrder> outList = new ArrayList<IOrder>(); 
@@ -257,7 +258,8 @@ import com.dukascopy.api.IOrder.State;
 	
 	
 	/**
-	 * Set the stop loss and trail step of an order in a new Thread
+	 * Set the stop loss and trail step of an order in a new Thread, 
+	 * unless the order already has them
 	 * 
 	@param	order the order to be changed
 	 *
@@ -355,16 +357,12 @@ import com.dukascopy.api.IOrder.State;
 		setCounter(0);
 	}
 
-	private class TrailStepTask implements Runnable {
-		private Future<IOrder> future;
+	private class TrailStepTask implements Runnable, Scheduler.Callback<IOrder> {
+		private static final long POLL_MILLIS = 100L;
+		private static final int MAX_POLLS = 100;
 		private IOrder order;
 		private double trailStep;
-	
-		public TrailStepTask(Future<IOrder> future, double trailStep) 
-		{
-			this.future = future;
-			this.trailStep = trailStep;
-		}
+		private int polls;
 		
 		public TrailStepTask(IOrder order, double trailStep) 
 		{
@@ -372,32 +370,27 @@ import com.dukascopy.api.IOrder.State;
 			this.trailStep = trailStep;
 		}
 		
+		@Override
+		public void onDone(IOrder result) {
+			this.order = result;
+			if (order != null)
+				run();
+		}
+		
 		@Override
 		public void run() {			
-			if (future != null) {
-				try {
-					order = future.get();
-				} catch (InterruptedException ex) {
-					Logging.printErr(getContext().getConsole(), "TrailStepTask interrupted.", ex);
-	
-				} catch (ExecutionException ex) {
-					Logging.printErr(getContext().getConsole(), "TrailStepTask cannot execute.", ex);
-				}
-			}
-			
 			// set trailing step only if trailStep is >= 10d and 
 			// there is no trailing step in order already
 			if (trailStep < 10d || order.getTrailingStep() != 0d)
 				return;
-					
-			for (int i = 0; i < 10; i++) {
-				if (order.getState() != State.FILLED && order.getState() != State.OPENED) {
-					order.waitForUpdate(1000);
-				}
-				else	break;
+			
+			// check again later instead of blocking on waitForUpdate
+			if (order.getState() != State.FILLED && order.getState() != State.OPENED
+					&& ++polls < MAX_POLLS) {
+				Scheduler.schedule(this, POLL_MILLIS);
+				return;
 			}
 			
-			// TODO how to overcome "change to same stop loss price warning"
 			setStopLoss(order, order.getStopLossPrice(), this.trailStep);			
 		}
 	}
@@ -434,8 +427,13 @@ import com.dukascopy.api.IOrder.State;
 			this.newStop = Rounding.pip(order.getInstrument(), newStop);
 			this.trailStep = Math.round(this.trailStep);
 			
+			// the platform warns on a change to the same stop loss price
+			if (trailStep == order.getTrailingStep()
+					&& FixedPoint.toTenthPips(order.getInstrument(), newStop)
+						== FixedPoint.toTenthPips(order.getInstrument(), order.getStopLossPrice()))
+				return order;
+			
 			try {
-				// TODO check if order is in Filled state?
 				order.setStopLossPrice(newStop, side, trailStep);
 				order.waitForUpdate(1000);
 			}
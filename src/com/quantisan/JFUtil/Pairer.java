@@ -1,13 +1,21 @@
 package com.quantisan.JFUtil;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Currency;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import com.dukascopy.api.ITick;
 import com.dukascopy.api.Instrument;
 
 /**
- * Currency pair utilities
+ * Currency pair utilities.  Rates are written from the strategy thread 
+ * and may be read from any thread: readers never lock and always see 
+ * the rates of a conversion path as of the same moment.
  * 
  * @author plam
  *
@@ -15,57 +23,127 @@ import com.dukascopy.api.Instrument;
 public enum Pairer {
 	INSTANCE;
 	
-	private HashMap<Currency, Instrument> pairs = new HashMap<Currency, Instrument>();
 	private final Currency ACCOUNTCURRENCY;
+	// latest bid bits of each instrument by ordinal, NaN until its first tick.
+	// seqlock: writers make the sequence odd while they update a rate
+	private final AtomicLongArray rates = new AtomicLongArray(Instrument.values().length);
+	private final AtomicLong sequence = new AtomicLong();
+	
+	// conversion path of each currency to account currency, flattened and 
+	// immutable once built: steps of currency c are pathOffset[c] until 
+	// pathOffset[c + 1], currencies indexed as in InstrumentInfo
+	private int[] pathOffset;
+	private int[] pathInstrument;		// instrument ordinal of each step
+	private boolean[] pathInverted;		// divide by the rate instead of multiplying
+	private boolean[] isConvertible;	// by currency index
+	// instruments whose counter currency converts through each instrument, 
+	// flattened as the paths: dependents of ordinal o are dependentOffset[o] 
+	// until dependentOffset[o + 1]
+	private int[] dependentOffset;
+	private int[] dependents;
 	
 	private Pairer() {
 		ACCOUNTCURRENCY = JForexAccount.getCurrency();
-		initializeMajorPairs();
+		long nan = Double.doubleToRawLongBits(Double.NaN);
+		for (int i = 0; i < rates.length(); i++)
+			rates.set(i, nan);
+		initializePaths();
 	}
 	
 	/**
-	 * Initialize currency pairs for getting AUD, CAD, CHF, EUR, GBP
-	 * JPY, NZD, and USD counters to account currency.
+	 * Build a graph of currencies linked by every available instrument and 
+	 * find the shortest conversion path from each currency to account currency.
 	 * 	
 	 */	
-	private void initializeMajorPairs() {
-		Set<Currency> curSet = new HashSet<Currency>();
-		// add all major currencies
-		curSet.add(Currency.getInstance("AUD"));
-		curSet.add(Currency.getInstance("CAD"));
-		curSet.add(Currency.getInstance("CHF"));
-		curSet.add(Currency.getInstance("EUR"));
-		curSet.add(Currency.getInstance("GBP"));
-		curSet.add(Currency.getInstance("JPY"));
-		curSet.add(Currency.getInstance("NZD"));
-		curSet.add(Currency.getInstance("USD"));
-		Instrument instrument;
-		for (Currency curr : curSet) {
-			if (!curr.equals(ACCOUNTCURRENCY)) {
-				instrument = getPair(curr, ACCOUNTCURRENCY);	
-				pairs.put(curr, instrument);
+	private void initializePaths() {
+		int count = InstrumentInfo.getCurrencyCount();
+		List<List<Instrument>> edges = new ArrayList<List<Instrument>>(count);
+		for (int c = 0; c < count; c++)
+			edges.add(new ArrayList<Instrument>());
+		for (int i = 0; i < InstrumentInfo.getInstrumentCount(); i++) {
+			Instrument instrument = InstrumentInfo.getInstrument(i);
+			edges.get(InstrumentInfo.getPrimaryIndex(instrument)).add(instrument);
+			edges.get(InstrumentInfo.getSecondaryIndex(instrument)).add(instrument);
+		}
+		
+		// breadth first from account currency, remembering the instrument 
+		// which leads each currency one step closer to it
+		Instrument[] via = new Instrument[count];
+		int[] next = new int[count];
+		isConvertible = new boolean[count];
+		int root = InstrumentInfo.getCurrencyIndex(ACCOUNTCURRENCY);
+		if (root >= 0) {
+			LinkedList<Integer> queue = new LinkedList<Integer>();
+			isConvertible[root] = true;
+			queue.add(root);
+			while (!queue.isEmpty()) {
+				int current = queue.removeFirst();
+				for (Instrument instrument : edges.get(current)) {
+					int first = InstrumentInfo.getPrimaryIndex(instrument);
+					int other = (first == current) ? 
+								InstrumentInfo.getSecondaryIndex(instrument) : first;
+					if (isConvertible[other])	continue;
+					isConvertible[other] = true;
+					via[other] = instrument;
+					next[other] = current;
+					queue.add(other);
+				}
+			}
+		}
+		
+		pathOffset = new int[count + 1];
+		List<Instrument> steps = new ArrayList<Instrument>();
+		List<Boolean> inverted = new ArrayList<Boolean>();
+		for (int c = 0; c < count; c++) {
+			pathOffset[c] = steps.size();
+			if (!isConvertible[c])	continue;
+			for (int from = c; from != root; from = next[from]) {
+				steps.add(via[from]);
+				// converting from the counter currency to the base divides by the rate
+				inverted.add(InstrumentInfo.getSecondaryIndex(via[from]) == from);
+			}
+		}
+		pathOffset[count] = steps.size();
+		pathInstrument = new int[steps.size()];
+		pathInverted = new boolean[steps.size()];
+		for (int i = 0; i < pathInstrument.length; i++) {
+			pathInstrument[i] = steps.get(i).ordinal();
+			pathInverted[i] = inverted.get(i);
+		}
+		
+		int instruments = InstrumentInfo.getInstrumentCount();
+		List<List<Integer>> byStep = new ArrayList<List<Integer>>(instruments);
+		for (int i = 0; i < instruments; i++)
+			byStep.add(new ArrayList<Integer>());
+		for (int i = 0; i < instruments; i++) {
+			int counter = InstrumentInfo.getSecondaryIndex(InstrumentInfo.getInstrument(i));
+			for (int step = pathOffset[counter]; step < pathOffset[counter + 1]; step++) {
+				if (pathInstrument[step] != i)
+					byStep.get(pathInstrument[step]).add(i);
 			}
 		}
+		dependentOffset = new int[instruments + 1];
+		List<Integer> flat = new ArrayList<Integer>();
+		for (int i = 0; i < instruments; i++) {
+			dependentOffset[i] = flat.size();
+			flat.addAll(byStep.get(i));
+		}
+		dependentOffset[instruments] = flat.size();
+		dependents = new int[flat.size()];
+		for (int i = 0; i < dependents.length; i++)
+			dependents[i] = flat.get(i);
 	}
 	
 	/**
-	 * Get the Instrument given two Currencies
-	 * 
-	@param first a currency in a pair
-	 *
-	@param second the other currency in a pair
-	 *
-	@return an Instrument with the correct base/counter currencies order
-	 *
-	**/
-	private static Instrument getPair(Currency first, Currency second) {
-		String pair; 
-		pair = first.toString() + Instrument.getPairsSeparator() + 
-				second.toString();
-		if (Instrument.isInverted(pair))
-			pair = second.toString() + Instrument.getPairsSeparator() + 
-				first.toString();
-		return Instrument.fromString(pair);
+	 * @param instrument an instrument
+	 * @return ordinals of the other instruments whose values in account 
+	 * currency change with the rate of instrument, as it is on the 
+	 * conversion path of their counter currency
+	 */
+	static int[] getDependents(Instrument instrument) {
+		int i = instrument.ordinal();
+		return Arrays.copyOfRange(INSTANCE.dependents, 
+						INSTANCE.dependentOffset[i], INSTANCE.dependentOffset[i + 1]);
 	}
 	
 	/**
@@ -77,23 +155,92 @@ public enum Pairer {
 	 *
 	**/
 	public static void subscribeTransitionalInstruments(Set<Instrument> instSet) {
-		Currency firstCurr, secondCurr;
 		Set<Instrument> subscribeSet = 
 			new HashSet<Instrument>(JForexContext.getContext().getSubscribedInstruments());
 		
 		for (Instrument instrument : instSet) {
-			firstCurr = instrument.getPrimaryCurrency();
-			secondCurr = instrument.getSecondaryCurrency();		
-			if (!firstCurr.equals(INSTANCE.ACCOUNTCURRENCY) && 
-					!secondCurr.equals(INSTANCE.ACCOUNTCURRENCY))
-			{				
-				// TODO dynamically build pairs list according to instSet
-				subscribeSet.add(INSTANCE.pairs.get(secondCurr));		// transitional pair
+			int counter = InstrumentInfo.getSecondaryIndex(instrument);
+			if (!INSTANCE.isConvertible[counter]) {
+				Printer.println("No conversion path from " + instrument.getSecondaryCurrency() 
+									+ " to " + INSTANCE.ACCOUNTCURRENCY);
+				continue;
 			}
+			for (int i = INSTANCE.pathOffset[counter]; i < INSTANCE.pathOffset[counter + 1]; i++)
+				subscribeSet.add(InstrumentInfo.getInstrument(INSTANCE.pathInstrument[i]));		// transitional pair
 		}
 		JForexContext.getContext().setSubscribedInstruments(subscribeSet);	
 	}
 	
+	/**
+	 * Update the conversion rate of an instrument.  Call from onTick 
+	 * so that conversions do not have to ask history for the last tick.
+	 * 
+	 * @param instrument instrument of the tick
+	 * @param tick the latest tick
+	 */
+	public static void onTick(Instrument instrument, ITick tick) {
+		INSTANCE.setRate(instrument.ordinal(), tick.getBid());
+	}
+	
+	private void setRate(int ordinal, double rate) {
+		synchronized (rates) {
+			sequence.incrementAndGet();
+			rates.set(ordinal, Double.doubleToRawLongBits(rate));
+			sequence.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * @return sequence to pass to {@link #isUnchanged(long)} after reading rates
+	 */
+	private long beginRead() {
+		long version;
+		while (((version = sequence.get()) & 1L) != 0L)
+			Thread.yield();		// a writer is in the middle of an update
+		return version;
+	}
+	
+	/**
+	 * @return true if no rate was written since {@link #beginRead()}
+	 */
+	private boolean isUnchanged(long version) {
+		return sequence.get() == version;
+	}
+	
+	/**
+	 * Ask history once, before reading the rates, for the last bid of each 
+	 * instrument on the conversion path of a currency which has had no 
+	 * tick yet.  The bids are not stored, so a strategy which does not 
+	 * feed {@link #onTick(Instrument, ITick)} always converts at the latest 
+	 * price.
+	 * 
+	 * @param counter index of a convertible currency
+	 * @param fallbacks bids by instrument ordinal from an earlier call, or null
+	 * @return fallbacks with the missing bids added, null if none is missing
+	 */
+	private double[] getFallbacks(int counter, double[] fallbacks) {
+		for (int i = pathOffset[counter]; i < pathOffset[counter + 1]; i++) {
+			int ordinal = pathInstrument[i];
+			if (!Double.isNaN(getRate(ordinal)))	continue;
+			if (fallbacks == null) {
+				fallbacks = new double[rates.length()];
+				Arrays.fill(fallbacks, Double.NaN);
+			}
+			if (Double.isNaN(fallbacks[ordinal]))
+				fallbacks[ordinal] = JForexContext.getPrice(InstrumentInfo.getInstrument(ordinal));
+		}
+		return fallbacks;
+	}
+	
+	/**
+	 * @param ordinal ordinal of the instrument
+	 * @return latest bid from {@link #onTick(Instrument, ITick)}, NaN if 
+	 * no tick of the instrument has been seen yet
+	 */
+	private double getRate(int ordinal) {
+		return Double.longBitsToDouble(rates.get(ordinal));
+	}
+	
 	/**
 	 * Calculate the equivalent amount in account currency for each +1 pip on
 	 * a single unit position size (e.g. $1) of an instrument.
@@ -104,32 +251,45 @@ public enum Pairer {
 	@return	the equivalent account currency amount for each +1 pip movement of instrument with a 1,000 position size
 	**/
 	public static double convertPipToAccountCurrency(Instrument instrument) {	 
-		return convertValueToAccountCurrency(instrument, instrument.getPipValue());
+		return convertValueToAccountCurrency(instrument, InstrumentInfo.getPipValue(instrument));
 	}
 	
 	/**
 	 * @param instrument the instrument traded
 	 * @param value initial monetary value in base currency of instrument
-	 * @return
+	 * @return value in account currency, NaN if no chain of instruments 
+	 * links the currencies
 	 */
 	public static double convertValueToAccountCurrency(Instrument instrument, double value) {
-		double output;
+		int counter = InstrumentInfo.getSecondaryIndex(instrument);
+		if (!INSTANCE.isConvertible[counter])
+			return Double.NaN;
 		
-		if (instrument.getSecondaryCurrency().equals(INSTANCE.ACCOUNTCURRENCY)) {
-			// If second currency in the instrument is account currency, 
-			// then risk is equal amount difference 
-			output = value;
-		} else  if (instrument.getPrimaryCurrency().equals(INSTANCE.ACCOUNTCURRENCY)) {
-			output = value / JForexContext.getPrice(instrument);
-		} else {
-			Instrument transitionalInstrument = INSTANCE.pairs.get(instrument.getSecondaryCurrency());			
-			double transitionalPrice = JForexContext.getPrice(transitionalInstrument);
-			if (transitionalInstrument.getSecondaryCurrency().equals(INSTANCE.ACCOUNTCURRENCY))
-				output = value * transitionalPrice;
-			else				
-				output = value / transitionalPrice;				
+		double[] fallbacks = INSTANCE.getFallbacks(counter, null);
+		double output;
+		long version;
+		do {		// retry if a tick changed the rates meanwhile
+			version = INSTANCE.beginRead();
+			output = INSTANCE.convert(counter, value, fallbacks);
+		} while (!INSTANCE.isUnchanged(version));
+		return output;
+	}
+	
+	/**
+	 * @param counter index of a convertible currency
+	 * @param value amount in that currency
+	 * @param fallbacks from {@link #getFallbacks(int, double[])}
+	 * @return amount in account currency, only consistent if the rates 
+	 * are unchanged afterwards
+	 */
+	private double convert(int counter, double value, double[] fallbacks) {
+		double output = value;
+		for (int i = pathOffset[counter]; i < pathOffset[counter + 1]; i++) {
+			double rate = getRate(pathInstrument[i]);
+			if (Double.isNaN(rate) && fallbacks != null)
+				rate = fallbacks[pathInstrument[i]];
+			output = pathInverted[i] ? output / rate : output * rate;
 		}
-		
 		return output;
 	}
 	
@@ -138,16 +298,73 @@ public enum Pairer {
 	 * @param riskPct percent decimal (e.g. 1% = 0.01) of account risk to take
 	 * @param stopDiff = openPrice - stopPrice with the correct decimals for the particular instrument
 	 * @return a rounded lot size
+	 * @throws IllegalArgumentException if stopDiff rounds to 0 pips
 	 */
 	public static double getLot(Instrument instrument, double riskPct, double stopDiff) 
 	{
 		double amount, lotSize;
 		double equity = JForexAccount.getEquity();
 		amount = equity * riskPct;
-		lotSize = amount / (convertPipToAccountCurrency(instrument) * Math.abs(stopDiff) * Math.pow(10, instrument.getPipScale()));
+		lotSize = amount / (convertPipToAccountCurrency(instrument) * getStopPips(instrument, stopDiff));
 		lotSize /= 1e6;		// in millions for JForex API
 		
 		return Rounding.lot(lotSize);
 	}
-
+	
+	/**
+	 * @return stop distance in pips, exact to a tenth of a pip
+	 * @throws IllegalArgumentException if the distance rounds to 0, which 
+	 * would size an unbounded lot
+	 */
+	private static double getStopPips(Instrument instrument, double stopDiff) {
+		long tenthPips = Math.abs(FixedPoint.toTenthPips(instrument, stopDiff));
+		if (tenthPips == 0L)
+			throw new IllegalArgumentException("stopDiff of " + instrument 
+											+ " is under a tenth of a pip: " + stopDiff);
+		return tenthPips / 10d;
+	}
+	
+	/**
+	 * Lot sizes of a basket of instruments, using the same equity and 
+	 * the rates of the same moment for all of them.
+	 * 
+	 * @param instruments instruments to trade
+	 * @param riskPct percent decimal of account risk to take on each instrument
+	 * @param stopDiff stop distance of each instrument, see {@link #getLot(Instrument, double, double)}
+	 * @param out filled with the rounded lot size of each instrument, 
+	 * NaN where the instrument cannot be converted to account currency
+	 * @throws IllegalArgumentException if any stopDiff rounds to 0 pips
+	 */
+	public static void getLots(Instrument[] instruments, double[] riskPct, 
+			double[] stopDiff, double[] out)
+	{
+		final int n = instruments.length;
+		if (riskPct.length < n || stopDiff.length < n || out.length < n)
+			throw new IllegalArgumentException("arrays are shorter than " + n + " instruments");
+		
+		double equity = JForexAccount.getEquity();
+		double[] fallbacks = null;
+		for (int i = 0; i < n; i++) {
+			getStopPips(instruments[i], stopDiff[i]);		// before out is touched
+			int counter = InstrumentInfo.getSecondaryIndex(instruments[i]);
+			if (INSTANCE.isConvertible[counter])
+				fallbacks = INSTANCE.getFallbacks(counter, fallbacks);
+		}
+		long version;
+		do {		// account value of one pip of each instrument, from one snapshot
+			version = INSTANCE.beginRead();
+			for (int i = 0; i < n; i++) {
+				int counter = InstrumentInfo.getSecondaryIndex(instruments[i]);
+				out[i] = INSTANCE.isConvertible[counter] ? 
+						INSTANCE.convert(counter, InstrumentInfo.getPipValue(instruments[i]), fallbacks) 
+						: Double.NaN;
+			}
+		} while (!INSTANCE.isUnchanged(version));
+		
+		for (int i = 0; i < n; i++) {
+			if (Double.isNaN(out[i]))	continue;
+			double lotSize = equity * riskPct[i] / (out[i] * getStopPips(instruments[i], stopDiff[i]));
+			out[i] = Rounding.lot(lotSize / 1e6);		// in millions for JForex API
+		}
+	}
 }
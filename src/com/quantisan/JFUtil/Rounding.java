@@ -24,10 +24,7 @@ public class Rounding {
 	@return a pip value rounded to 0.1 pips
 	 */
 	public static double pip(Instrument instrument, double value) {
-		int scale = instrument.getPipScale();
-		value = Math.round(value * java.lang.Math.pow(10, scale + 1));		
-		value /= java.lang.Math.pow(10, scale + 1);
-		return value;
+		return FixedPoint.toPrice(instrument, FixedPoint.toTenthPips(instrument, value));
 	}
 	
 	/**
@@ -39,7 +36,6 @@ public class Rounding {
 	 */
 	public static double lot(double lot)
 	{	
-		lot = (int)(lot * 1000) / (1000d);		// 1000 units mininum
-		return lot;
+		return FixedPoint.toLot(FixedPoint.toUnits(lot));		// 1000 units mininum
 	}
 }
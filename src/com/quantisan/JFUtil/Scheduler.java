@@ -0,0 +1,273 @@
+package com.quantisan.JFUtil;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of daemon threads for short background tasks, such as
+ * setting a trailing step once an order is filled.  Tasks never block
+ * waiting on a {@link Future}; {@link #whenDone(Future, Callback)} listens
+ * to an {@link OrderPromise} and polls any other future instead, so a
+ * burst of orders does not tie up a thread each.
+ *
+ * @author plam
+ *
+ */
+public class Scheduler {
+	private static final Scheduler INSTANCE = new Scheduler();
+
+	/**
+	 * milliseconds before the first check of a pending {@link Future}, 
+	 * doubled after each check up to {@link #MAX_POLL_MILLIS}
+	 */
+	public static final long POLL_MILLIS = 10L;
+
+	/**
+	 * longest milliseconds between checks of a pending {@link Future}
+	 */
+	public static final long MAX_POLL_MILLIS = 1000L;
+
+	/**
+	 * milliseconds after which a pending {@link Future} is given up
+	 */
+	public static final long POLL_TIMEOUT_MILLIS = 60000L;
+
+	/**
+	 * number of cancelled tasks after which they are purged from the queue, 
+	 * as a cancelled task otherwise stays queued until its delay is over
+	 */
+	private static final int PURGE_EVERY = 256;
+
+	private final ScheduledThreadPoolExecutor pool;
+	private final AtomicLong tasks = new AtomicLong();
+	private final AtomicLong totalLatency = new AtomicLong();
+	private final AtomicLong maxLatency = new AtomicLong();
+	private final AtomicInteger cancelled = new AtomicInteger();
+
+	/**
+	 * Receives the result of a {@link Future} once it is done
+	 */
+	public interface Callback<T> {
+		/**
+		 * @param result result of the future, called on a scheduler thread
+		 */
+		void onDone(T result);
+	}
+
+	private Scheduler() {
+		pool = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "JFUtil-Scheduler-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Run a task on the shared threads as soon as one is free
+	 *
+	 * @param task short task which does not block
+	 */
+	public static void execute(Runnable task) {
+		schedule(task, 0L);
+	}
+
+	/**
+	 * Run a task on the shared threads after a delay
+	 *
+	 * @param task short task which does not block
+	 * @param delayMillis delay in milliseconds
+	 * @return handle to pass to {@link #cancel(ScheduledFuture)} if the task 
+	 * is no longer needed
+	 */
+	public static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+		return INSTANCE.pool.schedule(INSTANCE.new TimedTask(task, delayMillis),
+								delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Cancel a scheduled task which has not started, such as a timeout no 
+	 * longer needed.  Cancelled tasks are purged from the queue now and then.
+	 *
+	 * @param scheduled handle from {@link #schedule(Runnable, long)}
+	 * @return false if the task already ran or was cancelled
+	 */
+	public static boolean cancel(ScheduledFuture<?> scheduled) {
+		if (!scheduled.cancel(false))
+			return false;
+		if (INSTANCE.cancelled.incrementAndGet() % PURGE_EVERY == 0)
+			INSTANCE.pool.purge();
+		return true;
+	}
+
+	/**
+	 * Call back with the result of a future once it is done, without
+	 * blocking a thread while waiting.  If the future fails, is cancelled
+	 * or is not done within {@link #POLL_TIMEOUT_MILLIS}, the failure is 
+	 * printed and the callback receives null, as from a failed order.
+	 *
+	 * @param future e.g. from {@link Orderer#placeOrder(OrderTicket)}
+	 * @param callback receives the result on a scheduler thread
+	 */
+	public static <T> void whenDone(Future<T> future, final Callback<? super T> callback) {
+		if (future instanceof OrderPromise) {		// settled by order events, no need to poll
+			@SuppressWarnings("unchecked")
+			OrderPromise<T> promise = (OrderPromise<T>)future;
+			promise.addListener(new OrderPromise.Listener<T>() {
+				@Override public void onComplete(T result) {
+					callBack(callback, result);
+				}
+				@Override public void onFailure(Throwable cause) {
+					Printer.println("Scheduled future failed: " + cause);
+					callBack(callback, null);
+				}
+			});
+			return;
+		}
+		execute(new Poll<T>(future, callback));
+	}
+
+	private static <T> void callBack(final Callback<? super T> callback, final T result) {
+		execute(new Runnable() {
+			@Override public void run() {
+				callback.onDone(result);
+			}
+		});
+	}
+
+	/**
+	 * Set the number of shared threads, default is 1
+	 *
+	 * @param threads number of threads, at least 1
+	 */
+	public static void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be at least 1");
+		INSTANCE.pool.setCorePoolSize(threads);
+	}
+
+	/**
+	 * @return number of threads currently in the pool
+	 */
+	public static int getThreadCount() {
+		return INSTANCE.pool.getPoolSize();
+	}
+
+	/**
+	 * @return number of tasks waiting to run, including polls
+	 */
+	public static int getQueueSize() {
+		return INSTANCE.pool.getQueue().size();
+	}
+
+	/**
+	 * @return number of tasks run, including polls
+	 */
+	public static long getTaskCount() {
+		return INSTANCE.tasks.get();
+	}
+
+	/**
+	 * @return mean delay in nanoseconds between when tasks were due and
+	 * when they started, NaN before the first task
+	 */
+	public static double getMeanLatency() {
+		long count = INSTANCE.tasks.get();
+		return (count == 0L) ? Double.NaN : (double)INSTANCE.totalLatency.get() / count;
+	}
+
+	/**
+	 * @return longest delay in nanoseconds between when a task was due
+	 * and when it started
+	 */
+	public static long getMaxLatency() {
+		return INSTANCE.maxLatency.get();
+	}
+
+	/**
+	 * Reset the task count and latencies
+	 */
+	public static void resetMetrics() {
+		INSTANCE.tasks.set(0L);
+		INSTANCE.totalLatency.set(0L);
+		INSTANCE.maxLatency.set(0L);
+	}
+
+	/**
+	 * Checks a future with growing delays until it is done or given up
+	 */
+	private static final class Poll<T> implements Runnable {
+		private final Future<T> future;
+		private final Callback<? super T> callback;
+		private final long deadline = System.nanoTime() 
+									+ TimeUnit.MILLISECONDS.toNanos(POLL_TIMEOUT_MILLIS);
+		private long delay = POLL_MILLIS;
+
+		Poll(Future<T> future, Callback<? super T> callback) {
+			this.future = future;
+			this.callback = callback;
+		}
+
+		@Override public void run() {
+			if (!future.isDone()) {
+				if (System.nanoTime() - deadline < 0L) {
+					schedule(this, delay);
+					delay = Math.min(2L * delay, MAX_POLL_MILLIS);
+					return;
+				}
+				Printer.println("Scheduled future not done after " 
+								+ POLL_TIMEOUT_MILLIS + " ms, giving up.");
+				callback.onDone(null);
+				return;
+			}
+			T result = null;
+			try {
+				result = future.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				Printer.printErr("Scheduler interrupted.", ex);
+			} catch (ExecutionException ex) {
+				Printer.printErr("Scheduled future failed.", ex);
+			} catch (CancellationException ex) {
+				Printer.printErr("Scheduled future cancelled.", ex);
+			}
+			callback.onDone(result);
+		}
+	}
+
+	/**
+	 * Records how late a task starts
+	 */
+	private class TimedTask implements Runnable {
+		private final Runnable task;
+		private final long due;
+
+		TimedTask(Runnable task, long delayMillis) {
+			this.task = task;
+			this.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+		}
+
+		@Override public void run() {
+			long latency = Math.max(0L, System.nanoTime() - due);
+			tasks.incrementAndGet();
+			totalLatency.addAndGet(latency);
+			long max = maxLatency.get();
+			while (latency > max && !maxLatency.compareAndSet(max, latency))
+				max = maxLatency.get();
+			try {
+				task.run();
+			} catch (RuntimeException ex) {
+				Printer.printErr("Scheduled task failed.", ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package com.quantisan.JFUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dukascopy.api.IOrder;
+import com.dukascopy.api.JFException;
+import com.dukascopy.api.OfferSide;
+
+/**
+ * Stop loss changes of each order, sent one at a time.  While a change
+ * waits for its acknowledgement, newer changes of the same order replace
+ * each other so that only the newest is sent next, and a change to the
+ * stop and trail step the order already has is not sent at all.
+ *
+ * @author plam
+ *
+ */
+final class StopQueue {
+	private final OrderTracker tracker;
+	private final Map<String, Slot> slots = new HashMap<String, Slot>();	// orders in flight
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	private static final class Change {
+		private final double stop, trailStep;
+		private final List<OrderStage> results = new ArrayList<OrderStage>(1);
+
+		Change(double stop, double trailStep, OrderStage result) {
+			this.stop = stop;
+			this.trailStep = trailStep;
+			results.add(result);
+		}
+	}
+
+	private static final class Slot {
+		private Change pending;
+	}
+
+	StopQueue(OrderTracker tracker) {
+		this.tracker = tracker;
+	}
+
+	/**
+	 * Queue a change of a filled order
+	 *
+	 * @param result completed with the order once the change, or a newer
+	 * one replacing it, is acknowledged, or with null if it failed
+	 */
+	void submit(IOrder order, double newStop, double trailStep, OrderStage result) {
+		Change change = new Change(Rounding.pip(order.getInstrument(), newStop),
+									Math.round(trailStep), result);
+		boolean isNoOp;
+		synchronized (this) {
+			Slot slot = slots.get(order.getLabel());
+			if (slot != null) {			// in flight, wait behind it
+				if (slot.pending != null) {
+					change.results.addAll(slot.pending.results);
+					coalesced.incrementAndGet();
+				}
+				slot.pending = change;
+				return;
+			}
+			isNoOp = isNoOp(order, change);
+			if (!isNoOp)
+				slots.put(order.getLabel(), new Slot());
+		}
+		if (isNoOp) {
+			skipped.incrementAndGet();
+			complete(change, order);
+		} else {
+			send(order, change);
+		}
+	}
+
+	/**
+	 * @return number of changes sent to the engine
+	 */
+	long getSentCount() {
+		return sent.get();
+	}
+
+	/**
+	 * @return number of changes not sent because they changed nothing
+	 */
+	long getSkippedCount() {
+		return skipped.get();
+	}
+
+	/**
+	 * @return number of changes not sent because a newer one replaced them
+	 */
+	long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	/**
+	 * Any failure before the change reaches the engine completes it with 
+	 * null, so the slot is freed for the changes waiting behind it
+	 */
+	private void send(final IOrder order, final Change change) {
+		try {
+			JForexContext.getContext().executeTask(new Callable<IOrder>() {
+				@Override public IOrder call() {
+					OrderPromise<IOrder> changed = null;
+					try {
+						OfferSide side = order.isLong() ? OfferSide.BID : OfferSide.ASK;
+						changed = tracker.whenChanged(order);
+						order.setStopLossPrice(change.stop, side, change.trailStep);
+					}
+					catch (Exception ex) {		// JFException or unchecked
+						if (changed != null)	changed.cancel(false);
+						fail(order, change, ex);
+						return null;
+					}
+					catch (Error err) {
+						if (changed != null)	changed.cancel(false);
+						onDone(order, change, null);
+						throw err;
+					}
+					sent.incrementAndGet();
+					changed.addListener(new OrderPromise.Listener<IOrder>() {
+						@Override public void onComplete(IOrder result) {
+							onDone(order, change, result);
+						}
+						@Override public void onFailure(Throwable cause) {
+							Printer.println(order.getLabel() + "-- couldn't set newStop: " +
+											change.stop + ", trailStep: " + change.trailStep +
+											", " + cause.getMessage());
+							onDone(order, change, null);
+						}
+					});
+					return order;
+				}
+			});
+		}
+		catch (RuntimeException ex) {		// e.g. no context set
+			fail(order, change, ex);
+		}
+	}
+
+	private void fail(IOrder order, Change change, Exception ex) {
+		Printer.printErr(order.getLabel() + "-- couldn't set newStop: " +
+						change.stop + ", trailStep: " + change.trailStep, ex);
+		onDone(order, change, null);
+	}
+
+	/**
+	 * Complete a change and send the newest one waiting behind it, if any
+	 */
+	private void onDone(IOrder order, Change change, IOrder result) {
+		complete(change, result);
+		Change next;
+		while (true) {
+			synchronized (this) {
+				Slot slot = slots.get(order.getLabel());
+				next = slot.pending;
+				slot.pending = null;
+				if (next == null) {
+					slots.remove(order.getLabel());
+					return;
+				}
+				if (!isNoOp(order, next))
+					break;
+			}
+			skipped.incrementAndGet();
+			complete(next, order);
+		}
+		send(order, next);
+	}
+
+	private static void complete(Change change, IOrder result) {
+		for (OrderStage stage : change.results)
+			stage.complete(result);
+	}
+
+	private static boolean isNoOp(IOrder order, Change change) {
+		return change.trailStep == order.getTrailingStep()
+				&& FixedPoint.toTenthPips(order.getInstrument(), change.stop)
+					== FixedPoint.toTenthPips(order.getInstrument(), order.getStopLossPrice());
+	}
+}
@@ -0,0 +1,344 @@
+package com.quantisan.JFUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.dukascopy.api.IOrder;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.Instrument;
+
+/**
+ * Trailing stops kept on the client instead of by the broker, so that the
+ * trail and the step may be below 10 pips.  Each instrument has a heap of
+ * the prices at which its orders next move their stop, in tenths of a
+ * pip, so that a tick only looks at the orders whose stop has to move.
+ *
+ * Orders which stop trailing are dropped from the heaps lazily, when they
+ * reach the top or when they make up half of a heap.
+ *
+ * The stop of an order is the last one requested; if that change fails it
+ * falls back to the order's stop loss, so that the next tick retries it.
+ * Changes are sent without a trailing step, so an order with a broker
+ * trailing step is refused, and dropped if it gets one while trailed.
+ *
+ * @author plam
+ *
+ */
+final class TrailingEngine {
+	private final Map<String, Integer> slotByLabel = new HashMap<String, Integer>();
+	private final Heap[] longHeaps, shortHeaps;
+
+	// per slot of a trailed order, slots are reused
+	private IOrder[] orders = new IOrder[16];
+	private long[] stops = new long[16];		// tenth pips requested, Long.MIN_VALUE for none
+	private long[] trails = new long[16];
+	private long[] steps = new long[16];
+	private int[] versions = new int[16];		// bumped when the slot is freed or re-keyed
+	private int[] freeSlots = new int[16];
+	private int slotCount, freeCount;
+
+	private long modifications;
+
+	TrailingEngine() {
+		longHeaps = new Heap[InstrumentInfo.getInstrumentCount()];
+		shortHeaps = new Heap[InstrumentInfo.getInstrumentCount()];
+	}
+
+	/**
+	 * Start or restart trailing an order from its current stop loss
+	 *
+	 * @param trailPips distance of the stop from the best price, in pips
+	 * @param stepPips least move of the stop, in pips, at least 0.1
+	 * @throws IllegalArgumentException if the order has a broker trailing 
+	 * step, which the moves of the stop would clear
+	 */
+	synchronized void trail(IOrder order, double trailPips, double stepPips) {
+		checkArguments(trailPips, stepPips);
+		if (order.getTrailingStep() != 0d)
+			throw new IllegalArgumentException(order.getLabel() + " already has a trailing step");
+		remove(order.getLabel());
+
+		int slot = allocate();
+		orders[slot] = order;
+		stops[slot] = getStop(order);
+		trails[slot] = Math.round(trailPips * 10d);
+		steps[slot] = Math.round(stepPips * 10d);
+		slotByLabel.put(order.getLabel(), slot);
+		push(slot);
+	}
+
+	static void checkArguments(double trailPips, double stepPips) {
+		if (trailPips <= 0d)
+			throw new IllegalArgumentException("trailPips must be positive");
+		if (stepPips < 0.1d)
+			throw new IllegalArgumentException("stepPips must be at least 0.1");
+	}
+
+	/**
+	 * Stop trailing an order, leaving its stop where it is
+	 *
+	 * @return false if the order was not trailed
+	 */
+	synchronized boolean remove(String label) {
+		Integer slot = slotByLabel.remove(label);
+		if (slot == null)	return false;
+		Heap heap = getHeap(orders[slot]);
+		heap.stale++;
+		free(slot);
+		if (heap.stale > heap.size / 2)
+			heap.compact(versions);
+		return true;
+	}
+
+	private static long getStop(IOrder order) {
+		return (order.getStopLossPrice() == 0d) ? Long.MIN_VALUE
+				: FixedPoint.toTenthPips(order.getInstrument(), order.getStopLossPrice());
+	}
+
+	/**
+	 * Move the stops of the orders of the instrument which the tick has
+	 * moved by at least their step
+	 */
+	void onTick(Instrument instrument, ITick tick) {
+		IOrder[] moved = null;
+		long[] requested = null;
+		int count = 0;
+		synchronized (this) {
+			int i = instrument.ordinal();
+			long bid = FixedPoint.toTenthPips(instrument, tick.getBid());
+			long ask = FixedPoint.toTenthPips(instrument, tick.getAsk());
+			// longs move when the bid reaches stop + trail + step, shorts when
+			// the ask reaches stop - trail - step, keyed negated for a min-heap
+			for (int side = 0; side < 2; side++) {
+				Heap heap = (side == 0) ? longHeaps[i] : shortHeaps[i];
+				long price = (side == 0) ? bid : -ask;
+				while (heap != null && heap.size > 0 && heap.peekKey() <= price) {
+					int slot = heap.peekSlot();
+					boolean isStale = heap.peekVersion() != versions[slot];
+					heap.pop();
+					if (isStale) {
+						heap.stale--;
+						continue;
+					}
+					IOrder order = orders[slot];
+					if (order.getState() != IOrder.State.FILLED) {		// closed meanwhile
+						slotByLabel.remove(order.getLabel());
+						free(slot);
+						continue;
+					}
+					if (order.getTrailingStep() != 0d) {		// would be cleared by the move
+						Printer.println(order.getLabel() + " -- trailing step set, stop trailing");
+						slotByLabel.remove(order.getLabel());
+						free(slot);
+						continue;
+					}
+					stops[slot] = (side == 0) ? bid - trails[slot] : ask + trails[slot];
+					push(slot);
+					if (moved == null) {
+						moved = new IOrder[4];
+						requested = new long[4];
+					} else if (count == moved.length) {
+						moved = grow(moved);
+						requested = grow(requested);
+					}
+					moved[count] = order;
+					requested[count++] = stops[slot];
+				}
+			}
+			modifications += count;
+		}
+		// coalesced by the stop queue if the previous change is still pending
+		for (int j = 0; j < count; j++) {
+			Orderer.setStopLoss(moved[j], FixedPoint.toPrice(instrument, requested[j]), 0d)
+					.addListener(new Acknowledgement(moved[j], requested[j]));
+		}
+	}
+
+	/**
+	 * Fall back to the order's stop loss after a requested move failed, 
+	 * unless a newer move was requested meanwhile
+	 */
+	private synchronized void onFailed(IOrder order, long requested) {
+		Integer slot = slotByLabel.get(order.getLabel());
+		if (slot == null || orders[slot] != order || stops[slot] != requested)
+			return;
+		Heap heap = getHeap(order);
+		versions[slot]++;		// the entry keyed on the failed move is stale
+		heap.stale++;
+		stops[slot] = getStop(order);
+		push(slot);
+		if (heap.stale > heap.size / 2)
+			heap.compact(versions);
+	}
+
+	/**
+	 * @return number of orders trailed
+	 */
+	synchronized int size() {
+		return slotByLabel.size();
+	}
+
+	/**
+	 * @return number of stop moves emitted
+	 */
+	synchronized long getModificationCount() {
+		return modifications;
+	}
+
+	private void push(int slot) {
+		IOrder order = orders[slot];
+		long key;
+		if (stops[slot] == Long.MIN_VALUE)
+			key = Long.MIN_VALUE;		// no stop yet, set one on the next tick
+		else if (order.isLong())
+			key = stops[slot] + trails[slot] + steps[slot];
+		else
+			key = -(stops[slot] - trails[slot] - steps[slot]);
+		getHeap(order).push(key, slot, versions[slot]);
+	}
+
+	private Heap getHeap(IOrder order) {
+		Heap[] heaps = order.isLong() ? longHeaps : shortHeaps;
+		int i = order.getInstrument().ordinal();
+		if (heaps[i] == null)
+			heaps[i] = new Heap();
+		return heaps[i];
+	}
+
+	private int allocate() {
+		if (freeCount > 0)
+			return freeSlots[--freeCount];
+		if (slotCount == orders.length) {
+			orders = grow(orders);
+			stops = grow(stops);
+			trails = grow(trails);
+			steps = grow(steps);
+			versions = grow(versions);
+			freeSlots = grow(freeSlots);
+		}
+		return slotCount++;
+	}
+
+	private void free(int slot) {
+		orders[slot] = null;
+		versions[slot]++;
+		freeSlots[freeCount++] = slot;
+	}
+
+	private static IOrder[] grow(IOrder[] array) {
+		IOrder[] copy = new IOrder[array.length * 2];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+
+	private static long[] grow(long[] array) {
+		long[] copy = new long[array.length * 2];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+
+	private static int[] grow(int[] array) {
+		int[] copy = new int[array.length * 2];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+
+	/**
+	 * Outcome of a stop move, null if it failed
+	 */
+	private final class Acknowledgement implements OrderPromise.Listener<IOrder> {
+		private final IOrder order;
+		private final long requested;
+
+		Acknowledgement(IOrder order, long requested) {
+			this.order = order;
+			this.requested = requested;
+		}
+
+		@Override public void onComplete(IOrder result) {
+			if (result == null)
+				onFailed(order, requested);
+		}
+
+		@Override public void onFailure(Throwable cause) {
+			onFailed(order, requested);
+		}
+	}
+
+	/**
+	 * Binary min-heap of trigger prices in parallel primitive arrays
+	 */
+	private static final class Heap {
+		private long[] keys = new long[16];
+		private int[] slots = new int[16];
+		private int[] versions = new int[16];
+		private int size, stale;
+
+		long peekKey() {
+			return keys[0];
+		}
+
+		int peekSlot() {
+			return slots[0];
+		}
+
+		int peekVersion() {
+			return versions[0];
+		}
+
+		void push(long key, int slot, int version) {
+			if (size == keys.length) {
+				keys = grow(keys);
+				slots = grow(slots);
+				versions = grow(versions);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (keys[parent] <= key)	break;
+				set(i, keys[parent], slots[parent], versions[parent]);
+				i = parent;
+			}
+			set(i, key, slot, version);
+		}
+
+		void pop() {
+			if (--size > 0)
+				siftDown(0, keys[size], slots[size], versions[size]);
+		}
+
+		/**
+		 * Drop the entries of freed slots and heapify again
+		 */
+		void compact(int[] slotVersions) {
+			int n = 0;
+			for (int i = 0; i < size; i++) {
+				if (versions[i] == slotVersions[slots[i]])
+					set(n++, keys[i], slots[i], versions[i]);
+			}
+			size = n;
+			stale = 0;
+			for (int i = (size >>> 1) - 1; i >= 0; i--)
+				siftDown(i, keys[i], slots[i], versions[i]);
+		}
+
+		private void siftDown(int i, long key, int slot, int version) {
+			int half = size >>> 1;
+			while (i < half) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && keys[child + 1] < keys[child])
+					child++;
+				if (key <= keys[child])		break;
+				set(i, keys[child], slots[child], versions[child]);
+				i = child;
+			}
+			set(i, key, slot, version);
+		}
+
+		private void set(int i, long key, int slot, int version) {
+			keys[i] = key;
+			slots[i] = slot;
+			versions[i] = version;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.quantisan.JFUtil;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.dukascopy.api.IIndicators.AppliedPrice;
+
+public class BarSeriesTest {
+
+	@Test
+	public void testHeap() {
+		checkRing(BarSeries.create(4, false));
+	}
+
+	@Test
+	public void testOffHeap() {
+		checkRing(BarSeries.create(4, true));
+	}
+
+	private void checkRing(BarSeries series) {
+		for (int i = 1; i <= 6; i++)
+			series.add(i * 60000L, i, i + 0.5d, i - 0.5d, i + 0.25d, 10d * i);
+		series.add(6 * 60000L, 0d, 0d, 0d, 0d, 0d);		// duplicate is ignored
+		
+		assertEquals(4, series.size());
+		assertEquals(6 * 60000L, series.getTime(0));
+		assertEquals(6.25d, series.getClose(0), 0d);
+		assertEquals(3d, series.getOpen(3), 0d);
+		assertEquals(3.5d, series.getHigh(3), 0d);
+		assertEquals(40d, series.getVolume(2), 0d);
+		assertEquals(5d, series.getPrice(1, AppliedPrice.MEDIAN_PRICE), 0d);
+		
+		double[] closes = new double[3];
+		series.getPrices(AppliedPrice.CLOSE, 3, closes);
+		assertArrayEquals(new double[] {4.25d, 5.25d, 6.25d}, closes, 0d);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testShiftBeyondSize() {
+		BarSeries series = BarSeries.create(4, false);
+		series.add(60000L, 1d, 1d, 1d, 1d, 1d);
+		series.getClose(1);
+	}
+}
@@ -0,0 +1,45 @@
+package com.quantisan.JFUtil;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class EquityAnalyticsTest {
+
+	@Test
+	public void testDrawdown() {
+		EquityAnalytics analytics = new EquityAnalytics(1000L, 10, 16);
+		analytics.addSample(0L, 100d);
+		analytics.addSample(1000L, 110d);
+		analytics.addSample(2000L, 88d);
+		analytics.addSample(3000L, 99d);
+		analytics.addSample(5000L, 120d);
+		
+		EquityAnalytics.Snapshot snapshot = analytics.getSnapshot();
+		assertEquals(120d, snapshot.getPeak(), 0d);
+		assertEquals(0.2d, snapshot.getMaxDrawdown(), 1e-12);
+		assertEquals(4000L, snapshot.getMaxDrawdownDuration());
+		assertEquals(3000L, snapshot.getTimeUnderWater());
+		assertEquals(0L, snapshot.getDrawdownDuration());
+		assertFalse(Double.isNaN(snapshot.getSharpe()));
+		assertFalse(Double.isNaN(snapshot.getSortino()));
+	}
+
+	@Test
+	public void testCurveIsBounded() {
+		EquityAnalytics analytics = new EquityAnalytics(1000L, 10, 16);
+		EquityAnalytics.Snapshot first = null;
+		for (int i = 0; i < 100000; i++) {
+			analytics.addSample(i * 100L, 100d + Math.sin(i / 500d));
+			if (i == 10)	first = analytics.getSnapshot();
+		}
+		EquityAnalytics.Snapshot snapshot = analytics.getSnapshot();
+		assertTrue(snapshot.getCurveSize() <= 16);
+		assertEquals(0L, snapshot.getCurveTime(0));
+		for (int i = 1; i < snapshot.getCurveSize(); i++)
+			assertTrue(snapshot.getCurveTime(i) > snapshot.getCurveTime(i - 1));
+		// older snapshots keep their points
+		assertEquals(11, first.getCurveSize());
+		assertEquals(1000L, first.getCurveTime(10));
+	}
+}
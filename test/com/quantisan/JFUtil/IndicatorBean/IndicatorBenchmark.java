@@ -0,0 +1,134 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.dukascopy.api.IAccount;
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.IContext;
+import com.dukascopy.api.IIndicators;
+import com.dukascopy.api.IMessage;
+import com.dukascopy.api.IStrategy;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.JFException;
+import com.dukascopy.api.Library;
+import com.dukascopy.api.OfferSide;
+import com.dukascopy.api.Period;
+import com.quantisan.JFUtil.JForexAccount;
+import com.quantisan.JFUtil.JForexContext;
+import com.quantisan.JFUtil.Printer;
+
+/**
+ * Reports ns/bar of the local indicator implementations, and of the 
+ * platform calculation of the same beans when run as a strategy.
+ * 
+ * Run off the platform with random prices: 
+ * {@code java com.quantisan.JFUtil.IndicatorBean.IndicatorBenchmark}
+ */
+@Library("JFQuantisan.jar")
+public class IndicatorBenchmark implements IStrategy {
+	private static final int BARS = 10000;
+	private static final int ROUNDS = 20;
+
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		double[][] prices = new double[4][BARS];
+		double price = 1.3d;
+		for (int i = 0; i < BARS; i++) {
+			prices[0][i] = price;
+			price += (random.nextDouble() - 0.5d) * 0.002d;
+			prices[3][i] = price;
+			prices[1][i] = Math.max(prices[0][i], price) + random.nextDouble() * 0.001d;
+			prices[2][i] = Math.min(prices[0][i], price) - random.nextDouble() * 0.001d;
+		}
+		for (AbstractIndicatorBean bean : getBeans())
+			System.out.println(bean.toSpec() + " local: " + benchmarkLocal(bean, prices) + " ns/bar");
+	}
+
+	private static List<AbstractIndicatorBean> getBeans() {
+		List<AbstractIndicatorBean> beans = new ArrayList<AbstractIndicatorBean>();
+		beans.add(IndicatorBeanFactory.getAverageTrueRange());
+		for (IIndicators.MaType type : IIndicators.MaType.values()) {
+			if (type != IIndicators.MaType.MAMA)		// no local implementation
+				beans.add(IndicatorBeanFactory.getMovingAverage().setMAType(type));
+		}
+		beans.add(IndicatorBeanFactory.getMovingAverageConvergenceDivergence());
+		beans.add(IndicatorBeanFactory.getStochastic());
+		beans.add(IndicatorBeanFactory.getFastStochastic());
+		beans.add(IndicatorBeanFactory.getStochasticRSI());
+		beans.add(IndicatorBeanFactory.getUltimateOscillator());
+		return beans;
+	}
+
+	private static double benchmarkLocal(AbstractIndicatorBean bean, double[][] prices) {
+		double sink = 0d;
+		for (int i = 0; i < ROUNDS; i++)		// let the JIT compile first
+			sink += bean.calculate(prices[0], prices[1], prices[2], prices[3])[0][BARS - 1];
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++)
+			sink += bean.calculate(prices[0], prices[1], prices[2], prices[3])[0][BARS - 1];
+		long elapsed = System.nanoTime() - start;
+		if (sink == 42d)	System.out.print("");		// keep the result alive
+		return (double)elapsed / ROUNDS / BARS;
+	}
+
+	private double benchmarkPlatform(Instrument instrument, Period period, 
+			AbstractIndicatorBean bean, long time) throws JFException {
+		IndicatorSpec spec = bean.toSpec();
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			JForexContext.getIndicators().calculateIndicator(instrument, period, 
+						spec.getOfferSide(), spec.getFunctionName(), spec.getInputTypes(), 
+						spec.getParams(), Indicating.getFilter(), BARS, time, 0);
+		}
+		return (double)(System.nanoTime() - start) / ROUNDS / BARS;
+	}
+
+	@Override
+	public void onStart(IContext context) throws JFException {
+		JForexContext.setContext(context);
+		JForexAccount.setAccount(context.getAccount());
+
+		Instrument instrument = Instrument.EURUSD;
+		Period period = Period.ONE_MIN;
+		IBar last = context.getHistory().getBar(instrument, period, OfferSide.BID, 1);
+		List<IBar> bars = context.getHistory().getBars(instrument, period, OfferSide.BID, 
+								Indicating.getFilter(), BARS, last.getTime(), 0);
+		double[][] prices = new double[4][bars.size()];
+		for (int i = 0; i < bars.size(); i++) {
+			prices[0][i] = bars.get(i).getOpen();
+			prices[1][i] = bars.get(i).getHigh();
+			prices[2][i] = bars.get(i).getLow();
+			prices[3][i] = bars.get(i).getClose();
+		}
+		for (AbstractIndicatorBean bean : getBeans()) {
+			Printer.println(bean.toSpec() + " local: " + benchmarkLocal(bean, prices) 
+					+ " ns/bar, platform: " 
+					+ benchmarkPlatform(instrument, period, bean, last.getTime()) + " ns/bar");
+		}
+		context.stop();
+	}
+
+	@Override
+	public void onTick(Instrument instrument, ITick tick) throws JFException {
+	}
+
+	@Override
+	public void onBar(Instrument instrument, Period period, IBar askBar,
+			IBar bidBar) throws JFException {
+	}
+
+	@Override
+	public void onMessage(IMessage message) throws JFException {
+	}
+
+	@Override
+	public void onAccount(IAccount account) throws JFException {
+	}
+
+	@Override
+	public void onStop() throws JFException {
+	}
+}
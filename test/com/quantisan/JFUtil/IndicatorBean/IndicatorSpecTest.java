@@ -0,0 +1,43 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.dukascopy.api.IIndicators;
+
+public class IndicatorSpecTest {
+
+	@Test
+	public void testInterned() {
+		IndicatorSpec first = IndicatorBeanFactory.getMovingAverage()
+								.setMAType(IIndicators.MaType.EMA).setWidth(14).toSpec();
+		IndicatorSpec second = IndicatorBeanFactory.getMovingAverage()
+								.setWidth(14).setMAType(IIndicators.MaType.EMA).toSpec();
+		assertSame(first, second);
+		assertSame(first, first.toSpec());
+	}
+
+	@Test
+	public void testFollowsBeanChanges() {
+		MovingAverage bean = IndicatorBeanFactory.getMovingAverage().setWidth(10);
+		IndicatorSpec before = bean.toSpec();
+		assertSame(before, bean.toSpec());
+		
+		bean.setWidth(20);
+		IndicatorSpec after = bean.toSpec();
+		assertNotSame(before, after);
+		assertEquals(Integer.valueOf(10), before.getParams()[0]);
+		assertEquals(Integer.valueOf(20), after.getParams()[0]);
+	}
+
+	@Test
+	public void testLookback() {
+		MovingAverageConvergenceDivergence macd = IndicatorBeanFactory
+								.getMovingAverageConvergenceDivergence()
+								.setFastWidth(12).setSlowWidth(26).setSignalWidth(9);
+		assertEquals(25 + 8, macd.getLookback());
+		assertEquals(13, IndicatorBeanFactory.getMovingAverage().setWidth(14).getLookback());
+		assertTrue(macd.toSpec().getWarmUp() > macd.getLookback());
+	}
+}
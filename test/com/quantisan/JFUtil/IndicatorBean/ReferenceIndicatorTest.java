@@ -0,0 +1,105 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReferenceIndicatorTest {
+	private double[] open, high, low, close;
+
+	@Before
+	public void setUp() throws Exception {
+		Random random = new Random(7);
+		final int size = 300;
+		open = new double[size];
+		high = new double[size];
+		low = new double[size];
+		close = new double[size];
+		double price = 1.3d;
+		for (int i = 0; i < size; i++) {
+			open[i] = price;
+			price += (random.nextDouble() - 0.5d) * 0.002d;
+			close[i] = price;
+			high[i] = Math.max(open[i], close[i]) + random.nextDouble() * 0.001d;
+			low[i] = Math.min(open[i], close[i]) - random.nextDouble() * 0.001d;
+		}
+	}
+
+	@Test
+	public void testAverageTrueRange() {
+		final int width = 14;
+		double[] atr = IndicatorBeanFactory.getAverageTrueRange().setWidth(width)
+							.calculate(open, high, low, close)[0];
+		assertTrue(Double.isNaN(atr[width - 1]));
+
+		double expected = 0d;
+		for (int i = 1; i <= width; i++)
+			expected += trueRange(i);
+		expected /= width;
+		assertEquals(expected, atr[width], 1e-12);
+		for (int i = width + 1; i < close.length; i++) {
+			expected = (expected * (width - 1) + trueRange(i)) / width;
+			assertEquals(expected, atr[i], 1e-12);
+		}
+	}
+
+	private double trueRange(int i) {
+		return Math.max(high[i], close[i - 1]) - Math.min(low[i], close[i - 1]);
+	}
+
+	@Test
+	public void testFastStochastic() {
+		final int kWidth = 5, dWidth = 3;
+		double[][] sto = IndicatorBeanFactory.getFastStochastic()
+							.setFastKWidth(kWidth).setFastDWidth(dWidth)
+							.calculate(open, high, low, close);
+		for (int i = kWidth + dWidth - 2; i < close.length; i++) {
+			assertEquals(rawK(i, kWidth), sto[0][i], 1e-9);
+			double d = (rawK(i, kWidth) + rawK(i - 1, kWidth) + rawK(i - 2, kWidth)) / 3d;
+			assertEquals(d, sto[1][i], 1e-9);
+		}
+	}
+
+	private double rawK(int i, int width) {
+		double hh = Double.NEGATIVE_INFINITY, ll = Double.POSITIVE_INFINITY;
+		for (int j = i - width + 1; j <= i; j++) {
+			hh = Math.max(hh, high[j]);
+			ll = Math.min(ll, low[j]);
+		}
+		return 100d * (close[i] - ll) / (hh - ll);
+	}
+
+	@Test
+	public void testUltimateOscillator() {
+		double[] ult = IndicatorBeanFactory.getUltimateOscillator().setWidths(7, 14, 28)
+							.calculate(open, high, low, close)[0];
+		assertTrue(Double.isNaN(ult[27]));
+		for (int i = 28; i < close.length; i++) {
+			double expected = 100d * (4d * ratio(i, 7) + 2d * ratio(i, 14) + ratio(i, 28)) / 7d;
+			assertEquals(expected, ult[i], 1e-9);
+		}
+	}
+
+	private double ratio(int i, int width) {
+		double pressure = 0d, range = 0d;
+		for (int j = i - width + 1; j <= i; j++) {
+			double trueLow = Math.min(low[j], close[j - 1]);
+			pressure += close[j] - trueLow;
+			range += Math.max(high[j], close[j - 1]) - trueLow;
+		}
+		return pressure / range;
+	}
+
+	@Test
+	public void testMACDHistogram() {
+		double[][] macd = IndicatorBeanFactory.getMovingAverageConvergenceDivergence()
+							.calculate(open, high, low, close);
+		int lookback = 25 + 8;
+		assertTrue(Double.isNaN(macd[1][lookback - 1]));
+		for (int i = lookback; i < close.length; i++)
+			assertEquals(macd[0][i] - macd[1][i], macd[2][i], 1e-15);
+	}
+}
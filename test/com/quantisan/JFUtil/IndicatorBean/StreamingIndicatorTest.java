@@ -0,0 +1,340 @@
+package com.quantisan.JFUtil.IndicatorBean;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dukascopy.api.IIndicators;
+
+public class StreamingIndicatorTest {
+	private double[] prices;
+	private double[] open, high, low, close;
+
+	@Before
+	public void setUp() throws Exception {
+		Random random = new Random(42);
+		prices = new double[500];
+		prices[0] = 1.3d;
+		for (int i = 1; i < prices.length; i++)
+			prices[i] = prices[i - 1] + (random.nextDouble() - 0.5d) * 0.001d;
+
+		final int size = 1200;
+		open = new double[size];
+		high = new double[size];
+		low = new double[size];
+		close = new double[size];
+		double price = 1.3d;
+		for (int i = 0; i < size; i++) {
+			open[i] = price;
+			price += (random.nextDouble() - 0.5d) * 0.002d;
+			close[i] = price;
+			high[i] = Math.max(open[i], close[i]) + random.nextDouble() * 0.001d;
+			low[i] = Math.min(open[i], close[i]) - random.nextDouble() * 0.001d;
+		}
+	}
+
+	@Test
+	public void testSimpleAverage() {
+		final int width = 14;
+		Average sma = Average.create(IIndicators.MaType.SMA, width);
+		for (int i = 0; i < prices.length; i++) {
+			double value = sma.update(prices[i]);
+			if (i < width - 1) {
+				assertTrue(Double.isNaN(value));
+				continue;
+			}
+			double sum = 0d;
+			for (int j = i - width + 1; j <= i; j++)
+				sum += prices[j];
+			assertEquals(sum / width, value, 1e-12);
+		}
+	}
+
+	@Test
+	public void testWeightedAverage() {
+		final int width = 10;
+		Average wma = Average.create(IIndicators.MaType.WMA, width);
+		for (int i = 0; i < prices.length; i++) {
+			double value = wma.update(prices[i]);
+			if (i < width - 1)	continue;
+			double sum = 0d, weights = 0d;
+			for (int j = 0; j < width; j++) {
+				sum += (width - j) * prices[i - j];
+				weights += width - j;
+			}
+			assertEquals(sum / weights, value, 1e-12);
+		}
+	}
+
+	@Test
+	public void testExponentialAverage() {
+		final int width = 5;
+		Average ema = Average.create(IIndicators.MaType.EMA, width);
+		double expected = Double.NaN;
+		for (int i = 0; i < prices.length; i++) {
+			double value = ema.update(prices[i]);
+			if (i == width - 1) {
+				double sum = 0d;
+				for (int j = 0; j < width; j++)
+					sum += prices[j];
+				expected = sum / width;
+			} else if (i >= width) {
+				expected += 2d / (width + 1) * (prices[i] - expected);
+			}
+			assertEquals(expected, value, 1e-12);
+		}
+	}
+
+	@Test
+	public void testRollingExtreme() {
+		final int width = 7;
+		RollingExtreme highest = new RollingExtreme(width, true);
+		RollingExtreme lowest = new RollingExtreme(width, false);
+		for (int i = 0; i < prices.length; i++) {
+			double hh = highest.update(prices[i]);
+			double ll = lowest.update(prices[i]);
+			if (i < width - 1)	continue;
+			double max = Double.NEGATIVE_INFINITY, min = Double.POSITIVE_INFINITY;
+			for (int j = i - width + 1; j <= i; j++) {
+				max = Math.max(max, prices[j]);
+				min = Math.min(min, prices[j]);
+			}
+			assertEquals(max, hh, 0d);
+			assertEquals(min, ll, 0d);
+		}
+	}
+
+	/*
+	 * The beans below are streamed over the whole series and compared, on
+	 * every bar after warm-up, with a from-scratch calculation over only
+	 * the getWarmUp() bars before it and itself, as a platform call with that lookback
+	 * would see them.  Lines in price units are compared relative to at
+	 * least a pip, oscillators relative to at least 1.
+	 */
+
+	@Test
+	public void testAverageTrueRange() {
+		final int width = 14;
+		AbstractIndicatorBean bean = IndicatorBeanFactory.getAverageTrueRange().setWidth(width);
+		double[][] streamed = bean.calculate(open, high, low, close);
+		int warmUp = warmUp(bean);
+		for (int i = warmUp; i < close.length; i++) {
+			Window w = new Window(i, warmUp + 1);
+			assertWithin(w.averageTrueRange(width), streamed[0][i], 1e-4);
+		}
+	}
+
+	@Test
+	public void testStochastic() {
+		AbstractIndicatorBean bean = IndicatorBeanFactory.getStochastic()
+				.setFastKWidth(5).setSlowKWidth(3).setSlowDWidth(3)
+				.setSlowKMAType(IIndicators.MaType.SMA).setSlowDMAType(IIndicators.MaType.SMA);
+		double[][] streamed = bean.calculate(open, high, low, close);
+		int warmUp = warmUp(bean);
+		for (int i = warmUp; i < close.length; i++) {
+			Window w = new Window(i, warmUp + 1);
+			double[] rawK = w.rawK(w.high, w.low, w.close, 5);
+			double[] slowK = w.simpleAverage(rawK, 3);
+			assertWithin(last(slowK), streamed[0][i], 1d);
+			assertWithin(last(w.simpleAverage(slowK, 3)), streamed[1][i], 1d);
+		}
+	}
+
+	@Test
+	public void testFastStochastic() {
+		AbstractIndicatorBean bean = IndicatorBeanFactory.getFastStochastic()
+				.setFastKWidth(5).setFastDWidth(3).setFastDMAType(IIndicators.MaType.SMA);
+		double[][] streamed = bean.calculate(open, high, low, close);
+		int warmUp = warmUp(bean);
+		for (int i = warmUp; i < close.length; i++) {
+			Window w = new Window(i, warmUp + 1);
+			double[] fastK = w.rawK(w.high, w.low, w.close, 5);
+			assertWithin(last(fastK), streamed[0][i], 1d);
+			assertWithin(last(w.simpleAverage(fastK, 3)), streamed[1][i], 1d);
+		}
+	}
+
+	@Test
+	public void testStochasticRSI() {
+		AbstractIndicatorBean bean = IndicatorBeanFactory.getStochasticRSI()
+				.setRSIWidth(14).setFastKWidth(5).setFastDWidth(3)
+				.setSlowDMAType(IIndicators.MaType.SMA);
+		double[][] streamed = bean.calculate(open, high, low, close);
+		int warmUp = warmUp(bean);
+		for (int i = warmUp; i < close.length; i++) {
+			Window w = new Window(i, warmUp + 1);
+			double[] rsi = w.relativeStrength(14);
+			double[] fastK = w.rawK(rsi, rsi, rsi, 5);
+			assertWithin(last(fastK), streamed[0][i], 1d);
+			assertWithin(last(w.simpleAverage(fastK, 3)), streamed[1][i], 1d);
+		}
+	}
+
+	@Test
+	public void testMACD() {
+		AbstractIndicatorBean bean = IndicatorBeanFactory.getMovingAverageConvergenceDivergence()
+				.setFastWidth(12).setSlowWidth(26).setSignalWidth(9)
+				.setAppliedPrice(IIndicators.AppliedPrice.CLOSE);
+		double[][] streamed = bean.calculate(open, high, low, close);
+		int warmUp = warmUp(bean);
+		for (int i = warmUp; i < close.length; i++) {
+			Window w = new Window(i, warmUp + 1);
+			double[] fast = w.exponentialAverage(w.close, 12);
+			double[] slow = w.exponentialAverage(w.close, 26);
+			double[] macd = new double[slow.length];
+			for (int j = 0; j < macd.length; j++)
+				macd[j] = fast[j] - slow[j];
+			double signal = last(w.exponentialAverage(macd, 9));
+			assertWithin(last(macd), streamed[0][i], 1e-4);
+			assertWithin(signal, streamed[1][i], 1e-4);
+			assertWithin(last(macd) - signal, streamed[2][i], 1e-4);
+		}
+	}
+
+	@Test
+	public void testUltimateOscillator() {
+		AbstractIndicatorBean bean = IndicatorBeanFactory.getUltimateOscillator().setWidths(7, 14, 28);
+		double[][] streamed = bean.calculate(open, high, low, close);
+		int warmUp = warmUp(bean);
+		for (int i = warmUp; i < close.length; i++) {
+			Window w = new Window(i, warmUp + 1);
+			assertWithin(w.ultimateOscillator(7, 14, 28), streamed[0][i], 1d);
+		}
+	}
+
+	private static int warmUp(AbstractIndicatorBean bean) {
+		return StreamingIndicator.create(bean.toSpec()).getWarmUp();
+	}
+
+	/**
+	 * relative to the larger of the expected value and floor
+	 */
+	private static void assertWithin(double expected, double actual, double floor) {
+		assertFalse(Double.isNaN(expected));
+		assertEquals(expected, actual,
+				Streaming.TOLERANCE * Math.max(Math.abs(expected), floor));
+	}
+
+	private static double last(double[] values) {
+		return values[values.length - 1];
+	}
+
+	/**
+	 * Bars of the lookback window ending at one bar, and plain full-window
+	 * calculations over them
+	 */
+	private class Window {
+		final double[] high, low, close;
+
+		Window(int end, int size) {
+			high = Arrays.copyOfRange(StreamingIndicatorTest.this.high, end - size + 1, end + 1);
+			low = Arrays.copyOfRange(StreamingIndicatorTest.this.low, end - size + 1, end + 1);
+			close = Arrays.copyOfRange(StreamingIndicatorTest.this.close, end - size + 1, end + 1);
+		}
+
+		double trueRange(int j) {
+			return Math.max(high[j], close[j - 1]) - Math.min(low[j], close[j - 1]);
+		}
+
+		double averageTrueRange(int width) {
+			double atr = 0d;
+			for (int j = 1; j <= width; j++)
+				atr += trueRange(j) / width;
+			for (int j = width + 1; j < close.length; j++)
+				atr = (atr * (width - 1) + trueRange(j)) / width;
+			return atr;
+		}
+
+		double[] rawK(double[] h, double[] l, double[] c, int width) {
+			double[] k = nans(c.length);
+			for (int j = 0; j < c.length; j++) {
+				if (j < width - 1 || Double.isNaN(c[j - width + 1]))	continue;
+				double hh = Double.NEGATIVE_INFINITY, ll = Double.POSITIVE_INFINITY;
+				for (int m = j - width + 1; m <= j; m++) {
+					hh = Math.max(hh, h[m]);
+					ll = Math.min(ll, l[m]);
+				}
+				k[j] = (hh > ll) ? 100d * (c[j] - ll) / (hh - ll) : 0d;
+			}
+			return k;
+		}
+
+		double[] simpleAverage(double[] x, int width) {
+			double[] ma = nans(x.length);
+			for (int j = width - 1; j < x.length; j++) {
+				double sum = 0d;
+				for (int m = j - width + 1; m <= j; m++)
+					sum += x[m];
+				ma[j] = sum / width;		// NaN until x has width values
+			}
+			return ma;
+		}
+
+		/**
+		 * seeded with the simple average of the first width defined values
+		 */
+		double[] exponentialAverage(double[] x, int width) {
+			double[] ema = nans(x.length);
+			int first = 0;
+			while (Double.isNaN(x[first]))
+				first++;
+			double value = 0d;
+			for (int j = first; j < first + width; j++)
+				value += x[j] / width;
+			ema[first + width - 1] = value;
+			for (int j = first + width; j < x.length; j++) {
+				value += 2d / (width + 1) * (x[j] - value);
+				ema[j] = value;
+			}
+			return ema;
+		}
+
+		/**
+		 * Wilder RSI, seeded with the simple averages of the first width changes
+		 */
+		double[] relativeStrength(int width) {
+			double[] rsi = nans(close.length);
+			double gain = 0d, loss = 0d;
+			for (int j = 1; j < close.length; j++) {
+				double change = close[j] - close[j - 1];
+				double up = Math.max(change, 0d), down = Math.max(-change, 0d);
+				if (j <= width) {
+					gain += up / width;
+					loss += down / width;
+					if (j < width)	continue;
+				} else {
+					gain = (gain * (width - 1) + up) / width;
+					loss = (loss * (width - 1) + down) / width;
+				}
+				rsi[j] = (gain + loss > 0d) ? 100d * gain / (gain + loss) : 0d;
+			}
+			return rsi;
+		}
+
+		double ultimateOscillator(int... widths) {
+			final double[] weights = {4d, 2d, 1d};
+			int end = close.length - 1;
+			double total = 0d;
+			for (int n = 0; n < widths.length; n++) {
+				double pressure = 0d, range = 0d;
+				for (int j = end - widths[n] + 1; j <= end; j++) {
+					double trueLow = Math.min(low[j], close[j - 1]);
+					pressure += close[j] - trueLow;
+					range += Math.max(high[j], close[j - 1]) - trueLow;
+				}
+				total += (range > 0d) ? weights[n] * pressure / range : 0d;
+			}
+			return 100d * total / 7d;
+		}
+
+		private double[] nans(int size) {
+			double[] values = new double[size];
+			Arrays.fill(values, Double.NaN);
+			return values;
+		}
+	}
+}
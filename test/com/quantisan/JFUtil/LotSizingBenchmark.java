@@ -0,0 +1,93 @@
+package com.quantisan.JFUtil;
+
+import java.util.Set;
+
+import com.dukascopy.api.IAccount;
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.IContext;
+import com.dukascopy.api.IMessage;
+import com.dukascopy.api.IStrategy;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.JFException;
+import com.dukascopy.api.Library;
+import com.dukascopy.api.Period;
+
+/**
+ * Reports ns/instrument of sizing the subscribed instruments one at a time
+ * with {@link Pairer#getLot(Instrument, double, double)} against one
+ * {@link Pairer#getLots(Instrument[], double[], double[], double[])} call.
+ * Runs on the first ten second bar, after the rates have ticked.
+ */
+@Library("JFQuantisan.jar")
+public class LotSizingBenchmark implements IStrategy {
+	private static final int ROUNDS = 100000;
+	private IContext context;
+
+	@Override
+	public void onStart(IContext context) throws JFException {
+		this.context = context;
+		JForexContext.setContext(context);
+		JForexAccount.setAccount(context.getAccount());
+		Pairer.subscribeTransitionalInstruments(context.getSubscribedInstruments());
+	}
+
+	@Override
+	public void onTick(Instrument instrument, ITick tick) throws JFException {
+		Pairer.onTick(instrument, tick);
+	}
+
+	@Override
+	public void onBar(Instrument instrument, Period period, IBar askBar,
+			IBar bidBar) throws JFException
+	{
+		if (period != Period.TEN_SECS)	return;
+
+		Set<Instrument> subscribed = context.getSubscribedInstruments();
+		Instrument[] basket = subscribed.toArray(new Instrument[subscribed.size()]);
+		double[] riskPct = new double[basket.length];
+		double[] stopDiff = new double[basket.length];
+		double[] lots = new double[basket.length];
+		for (int i = 0; i < basket.length; i++) {
+			riskPct[i] = 0.01d;
+			stopDiff[i] = 50 * basket[i].getPipValue();
+		}
+
+		double sink = 0d;
+		for (int round = 0; round < 2; round++) {		// first round warms up the JIT
+			long start = System.nanoTime();
+			for (int r = 0; r < ROUNDS; r++) {
+				for (int i = 0; i < basket.length; i++)
+					sink += Pairer.getLot(basket[i], riskPct[i], stopDiff[i]);
+			}
+			long single = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int r = 0; r < ROUNDS; r++) {
+				Pairer.getLots(basket, riskPct, stopDiff, lots);
+				sink += lots[0];
+			}
+			long batch = System.nanoTime() - start;
+
+			if (round > 0) {
+				double per = (double)ROUNDS * basket.length;
+				Printer.println(basket.length + " instruments, getLot: " + single / per
+						+ " ns/instrument, getLots: " + batch / per + " ns/instrument");
+			}
+		}
+		if (sink == 42d)	Printer.println("");		// keep the results alive
+		context.stop();
+	}
+
+	@Override
+	public void onMessage(IMessage message) throws JFException {
+	}
+
+	@Override
+	public void onAccount(IAccount account) throws JFException {
+	}
+
+	@Override
+	public void onStop() throws JFException {
+	}
+}
@@ -0,0 +1,122 @@
+package com.quantisan.JFUtil;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dukascopy.api.IConsole;
+import com.dukascopy.api.IContext;
+import com.dukascopy.api.IEngine;
+import com.dukascopy.api.IOrder;
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.JFException;
+
+public class OrderBatchTest {
+	private final List<String> submitted = new ArrayList<String>();
+	private Callable<?> task;
+	private OrderBatch batch;
+	private String cancelAt;		// label on whose submit the batch is cancelled
+
+	private final IEngine engine = (IEngine)Proxy.newProxyInstance(IEngine.class.getClassLoader(),
+			new Class<?>[] { IEngine.class }, new InvocationHandler() {
+				@Override public Object invoke(Object proxy, Method method, Object[] args)
+						throws JFException {
+					if (!method.getName().equals("submitOrder"))	return null;
+					String label = (String)args[0];
+					submitted.add(label);
+					if (label.equals(cancelAt))
+						batch.cancel(false);
+					if (label.equals("fails"))
+						throw new JFException("rejected");
+					return order(label);
+				}
+			});
+
+	private static IOrder order(final String label) {
+		return (IOrder)Proxy.newProxyInstance(IOrder.class.getClassLoader(),
+				new Class<?>[] { IOrder.class }, new InvocationHandler() {
+					@Override public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getLabel"))	return label;
+						if (method.getName().equals("equals"))		return proxy == args[0];
+						if (method.getName().equals("hashCode"))	return label.hashCode();
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * holds the task until the test runs it
+	 */
+	@Before
+	public void setUp() {
+		final IConsole console = (IConsole)Proxy.newProxyInstance(IConsole.class.getClassLoader(),
+				new Class<?>[] { IConsole.class }, new InvocationHandler() {
+					@Override public Object invoke(Object proxy, Method method, Object[] args) {
+						return method.getName().equals("getErr") ? System.err : System.out;
+					}
+				});
+		JForexContext.setContext((IContext)Proxy.newProxyInstance(IContext.class.getClassLoader(),
+				new Class<?>[] { IContext.class }, new InvocationHandler() {
+					@Override public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getEngine"))		return engine;
+						if (name.equals("getConsole"))		return console;
+						if (name.equals("executeTask"))		task = (Callable<?>)args[0];
+						return null;
+					}
+				}));
+	}
+
+	private static List<OrderTicket> tickets(String... labels) {
+		List<OrderTicket> tickets = new ArrayList<OrderTicket>();
+		for (String label : labels)
+			tickets.add(new OrderTicket.Builder(label, Instrument.EURUSD,
+							IEngine.OrderCommand.BUY, 0.01d).build());
+		return tickets;
+	}
+
+	@Test
+	public void testTicketOrder() throws Exception {
+		batch = Orderer.placeOrders(tickets("first", "fails", "third"));
+		assertEquals(3, batch.size());
+		assertEquals(-1L, batch.getDispatchLatency());
+		assertEquals(-1L, batch.getSubmitLatency());
+		assertFalse(batch.getPromise(0).isDone());
+
+		task.call();
+		assertEquals(Arrays.asList("first", "fails", "third"), submitted);
+		List<IOrder> orders = batch.get(0L, TimeUnit.MILLISECONDS);
+		assertEquals(3, orders.size());
+		assertSame(orders.get(0), batch.getPromise(0).get(0L, TimeUnit.MILLISECONDS));
+		assertEquals("first", orders.get(0).getLabel());
+		assertNull(orders.get(1));
+		assertNull(batch.getPromise(1).get(0L, TimeUnit.MILLISECONDS));
+		assertEquals("third", batch.getPromise(2).get(0L, TimeUnit.MILLISECONDS).getLabel());
+
+		assertTrue(batch.getDispatchLatency() >= 0L);
+		assertTrue(batch.getSubmitLatency() >= batch.getDispatchLatency());
+	}
+
+	@Test
+	public void testCancelSkipsRest() throws Exception {
+		batch = Orderer.placeOrders(tickets("first", "second", "third"));
+		cancelAt = "first";
+		task.call();
+		assertEquals(Arrays.asList("first"), submitted);
+		assertTrue(batch.isCancelled());
+		assertEquals("first", batch.getPromise(0).get(0L, TimeUnit.MILLISECONDS).getLabel());
+		assertNull(batch.getPromise(1).get(0L, TimeUnit.MILLISECONDS));
+		assertNull(batch.getPromise(2).get(0L, TimeUnit.MILLISECONDS));
+		assertTrue(batch.getSubmitLatency() >= 0L);
+	}
+}
@@ -0,0 +1,76 @@
+package com.quantisan.JFUtil;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.dukascopy.api.IOrder;
+import com.dukascopy.api.IOrder.State;
+import com.dukascopy.api.Instrument;
+
+public class OrderIndexTest {
+
+	private static class MockOrder implements InvocationHandler {
+		private final String label;
+		private final Instrument instrument;
+		private State state = State.CREATED;
+		private double stop;
+
+		MockOrder(String label, Instrument instrument) {
+			this.label = label;
+			this.instrument = instrument;
+		}
+
+		IOrder proxy() {
+			return (IOrder)Proxy.newProxyInstance(IOrder.class.getClassLoader(),
+					new Class<?>[] { IOrder.class }, this);
+		}
+
+		@Override public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (name.equals("getLabel"))			return label;
+			if (name.equals("getInstrument"))		return instrument;
+			if (name.equals("getState"))			return state;
+			if (name.equals("getStopLossPrice"))	return stop;
+			if (name.equals("getOpenPrice"))		return 1.3d;
+			if (name.equals("isLong"))				return true;
+			if (name.equals("equals"))				return proxy == args[0];
+			if (name.equals("hashCode"))			return label.hashCode();
+			return null;
+		}
+	}
+
+	@Test
+	public void testUpdate() {
+		MockOrder a = new MockOrder("a", Instrument.EURUSD);
+		MockOrder b = new MockOrder("b", Instrument.USDJPY);
+		IOrder orderA = a.proxy(), orderB = b.proxy();
+		OrderIndex index = new OrderIndex();
+		index.reset(Arrays.asList(orderA, orderB));
+
+		assertSame(orderA, index.get("a"));
+		assertEquals(Arrays.asList(orderA), index.get(Instrument.EURUSD));
+		assertEquals(2, index.get(State.CREATED).size());
+		assertTrue(index.getUnprotected().isEmpty());
+
+		a.state = State.FILLED;
+		index.update(orderA);
+		assertEquals(Arrays.asList(orderB), index.get(State.CREATED));
+		assertEquals(Arrays.asList(orderA), index.getUnprotected());
+
+		a.stop = 1.31d;		// stop moved beyond open price
+		index.update(orderA);
+		assertTrue(index.getUnprotected().isEmpty());
+
+		a.state = State.CLOSED;
+		index.update(orderA);
+		assertNull(index.get("a"));
+		assertTrue(index.get(Instrument.EURUSD).isEmpty());
+		assertEquals(Arrays.asList(orderB), index.getAll());
+	}
+}
@@ -0,0 +1,49 @@
+package com.quantisan.JFUtil;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.dukascopy.api.IOrder;
+
+public class OrderStageTest {
+
+	@Test
+	public void testFailedOrderPassesNull() throws Exception {
+		OrderStage placed = new OrderStage();
+		OrderStage last = placed.thenSetStop(1.3d).thenTrail(20d);
+		assertFalse(last.isDone());
+		placed.complete(null);
+		assertNull(last.get(0L, TimeUnit.MILLISECONDS));
+	}
+
+	@Test(expected=ExecutionException.class)
+	public void testFailurePropagates() throws Exception {
+		OrderStage placed = new OrderStage();
+		OrderStage last = placed.thenSetStop(1.3d).thenTrail(20d);
+		placed.fail(new IllegalStateException("rejected"));
+		last.get(0L, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testListenerAfterDone() throws Exception {
+		OrderStage placed = new OrderStage();
+		placed.complete(null);
+		final IOrder[] seen = { null };
+		final boolean[] isCalled = { false };
+		placed.addListener(new OrderPromise.Listener<IOrder>() {
+			@Override public void onComplete(IOrder result) {
+				seen[0] = result;
+				isCalled[0] = true;
+			}
+			@Override public void onFailure(Throwable cause) {
+				fail(cause.getMessage());
+			}
+		});
+		assertTrue(isCalled[0]);
+		assertNull(seen[0]);
+	}
+}
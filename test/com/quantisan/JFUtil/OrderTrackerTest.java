@@ -0,0 +1,92 @@
+package com.quantisan.JFUtil;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.dukascopy.api.IMessage;
+import com.dukascopy.api.IOrder;
+import com.dukascopy.api.IOrder.State;
+
+public class OrderTrackerTest {
+	private State state = State.CREATED;
+
+	private IOrder order = (IOrder)Proxy.newProxyInstance(IOrder.class.getClassLoader(),
+			new Class<?>[] { IOrder.class }, new InvocationHandler() {
+				@Override public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("getState"))	return state;
+					if (method.getName().equals("getLabel"))	return "test";
+					return null;
+				}
+			});
+
+	private IMessage message(final IMessage.Type type) {
+		return (IMessage)Proxy.newProxyInstance(IMessage.class.getClassLoader(),
+				new Class<?>[] { IMessage.class }, new InvocationHandler() {
+					@Override public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getType"))		return type;
+						if (method.getName().equals("getOrder"))	return order;
+						return null;
+					}
+				});
+	}
+
+	@Test
+	public void testFilledByMessage() throws Exception {
+		OrderTracker tracker = new OrderTracker();
+		OrderPromise<IOrder> promise = tracker.whenFilled(order);
+		tracker.onMessage(message(IMessage.Type.ORDER_SUBMIT_OK));
+		assertFalse(promise.isDone());
+
+		state = State.FILLED;
+		tracker.onMessage(message(IMessage.Type.ORDER_FILL_OK));
+		assertSame(order, promise.get(0L, TimeUnit.MILLISECONDS));
+		assertTrue(tracker.whenFilled(order).isDone());
+	}
+
+	@Test(expected=ExecutionException.class)
+	public void testCancelled() throws Exception {
+		OrderTracker tracker = new OrderTracker();
+		OrderPromise<IOrder> promise = tracker.whenFilled(order);
+		state = State.CANCELED;
+		tracker.onMessage(message(IMessage.Type.ORDER_FILL_REJECTED));
+		promise.get(0L, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testChanged() throws Exception {
+		OrderTracker tracker = new OrderTracker();
+		state = State.FILLED;
+		OrderPromise<IOrder> promise = tracker.whenChanged(order);
+		assertFalse(promise.isDone());
+		tracker.onMessage(message(IMessage.Type.ORDER_CHANGED_OK));
+		assertSame(order, promise.get(0L, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testTimeoutFallsBackToState() throws Exception {
+		OrderTracker tracker = new OrderTracker();
+		tracker.setTimeout(20L);
+		OrderPromise<IOrder> promise = tracker.whenFilled(order);
+		state = State.FILLED;		// without a message
+		assertSame(order, promise.get(2L, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testTimeoutsCancelled() {
+		OrderTracker tracker = new OrderTracker();
+		state = State.FILLED;
+		int queued = Scheduler.getQueueSize();
+		for (int i = 0; i < 1000; i++) {
+			tracker.whenChanged(order);
+			tracker.onMessage(message(IMessage.Type.ORDER_CHANGED_OK));
+		}
+		assertTrue(Scheduler.getQueueSize() - queued < 256);		// purged meanwhile
+	}
+}
@@ -35,7 +35,7 @@ public class OrdererTester implements IStrategy {
 
 	@Override
 	public void onMessage(IMessage message) throws JFException {
-		// TODO Auto-generated method stub
+		Orderer.onMessage(message);
 
 	}
 
@@ -23,4 +23,13 @@ public class RoundingTest {
 		assertEquals(2.152d, Rounding.lot(2.15234568d), 0d);
 	}
 
+	@Test
+	public void testFixedPoint() {
+		assertEquals(137983L, FixedPoint.toTenthPips(Instrument.EURUSD, 1.3798312368));
+		assertEquals(1.37983d, FixedPoint.toPrice(Instrument.EURUSD, 137983L), 0d);
+		assertEquals(500L, FixedPoint.toTenthPips(Instrument.EURUSD, 1.3055d - 1.3005d));
+		assertEquals(3000L, FixedPoint.toUnits(0.0035d));
+		assertEquals(20000L, FixedPoint.toUnits(0.1d * 0.2d));		// 0.020000000000000004
+	}
+
 }
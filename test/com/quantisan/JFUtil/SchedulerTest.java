@@ -0,0 +1,79 @@
+package com.quantisan.JFUtil;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dukascopy.api.IConsole;
+import com.dukascopy.api.IContext;
+
+public class SchedulerTest {
+	private final CountDownLatch called = new CountDownLatch(1);
+	private volatile Object received = "not called";
+
+	private final Scheduler.Callback<Object> callback = new Scheduler.Callback<Object>() {
+		@Override public void onDone(Object result) {
+			received = result;
+			called.countDown();
+		}
+	};
+
+	/**
+	 * prints failures to the standard streams
+	 */
+	@Before
+	public void setUp() {
+		final IConsole console = (IConsole)Proxy.newProxyInstance(IConsole.class.getClassLoader(),
+				new Class<?>[] { IConsole.class }, new InvocationHandler() {
+					@Override public Object invoke(Object proxy, Method method, Object[] args) {
+						return method.getName().equals("getErr") ? System.err : System.out;
+					}
+				});
+		JForexContext.setContext((IContext)Proxy.newProxyInstance(IContext.class.getClassLoader(),
+				new Class<?>[] { IContext.class }, new InvocationHandler() {
+					@Override public Object invoke(Object proxy, Method method, Object[] args) {
+						return method.getName().equals("getConsole") ? console : null;
+					}
+				}));
+	}
+
+	@Test
+	public void testPromise() throws Exception {
+		OrderPromise<Object> promise = new OrderPromise<Object>();
+		Scheduler.whenDone(promise, callback);
+		promise.complete("order");
+		assertTrue(called.await(1L, TimeUnit.SECONDS));
+		assertEquals("order", received);
+	}
+
+	@Test
+	public void testFailedPromise() throws Exception {
+		OrderPromise<Object> promise = new OrderPromise<Object>();
+		Scheduler.whenDone(promise, callback);
+		promise.fail(new IllegalStateException("rejected"));
+		assertTrue(called.await(1L, TimeUnit.SECONDS));
+		assertNull(received);
+	}
+
+	@Test
+	public void testCancelledFuture() throws Exception {
+		FutureTask<Object> future = new FutureTask<Object>(new Callable<Object>() {
+			@Override public Object call() {
+				return "order";
+			}
+		});
+		Scheduler.whenDone(future, callback);
+		future.cancel(false);
+		assertTrue(called.await(1L, TimeUnit.SECONDS));
+		assertNull(received);
+	}
+}
@@ -0,0 +1,130 @@
+package com.quantisan.JFUtil;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.dukascopy.api.IConsole;
+import com.dukascopy.api.IContext;
+import com.dukascopy.api.IMessage;
+import com.dukascopy.api.IOrder;
+import com.dukascopy.api.Instrument;
+
+public class StopQueueTest {
+	private double stop = 1.25d, trailStep;
+	private int sent;
+	private boolean isBroken;		// setStopLossPrice throws unchecked
+
+	private final IOrder order = (IOrder)Proxy.newProxyInstance(IOrder.class.getClassLoader(),
+			new Class<?>[] { IOrder.class }, new InvocationHandler() {
+				@Override public Object invoke(Object proxy, Method method, Object[] args) {
+					String name = method.getName();
+					if (name.equals("getLabel"))			return "test";
+					if (name.equals("getInstrument"))		return Instrument.EURUSD;
+					if (name.equals("getState"))			return IOrder.State.FILLED;
+					if (name.equals("isLong"))				return true;
+					if (name.equals("getStopLossPrice"))	return stop;
+					if (name.equals("getTrailingStep"))		return trailStep;
+					if (name.equals("setStopLossPrice")) {
+						if (isBroken)	throw new IllegalStateException("broken");
+						sent++;
+						stop = (Double)args[0];
+						trailStep = (Double)args[2];
+					}
+					return null;
+				}
+			});
+
+	private final IMessage changed = (IMessage)Proxy.newProxyInstance(IMessage.class.getClassLoader(),
+			new Class<?>[] { IMessage.class }, new InvocationHandler() {
+				@Override public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("getType"))		return IMessage.Type.ORDER_CHANGED_OK;
+					if (method.getName().equals("getOrder"))	return order;
+					return null;
+				}
+			});
+
+	/**
+	 * runs tasks at once on the calling thread, prints to the standard streams
+	 */
+	private static void setContext() {
+		final IConsole console = (IConsole)Proxy.newProxyInstance(IConsole.class.getClassLoader(),
+				new Class<?>[] { IConsole.class }, new InvocationHandler() {
+					@Override public Object invoke(Object proxy, Method method, Object[] args) {
+						return method.getName().equals("getErr") ? System.err : System.out;
+					}
+				});
+		JForexContext.setContext((IContext)Proxy.newProxyInstance(IContext.class.getClassLoader(),
+				new Class<?>[] { IContext.class }, new InvocationHandler() {
+					@Override public Object invoke(Object proxy, Method method, Object[] args)
+							throws Exception {
+						if (method.getName().equals("getConsole"))
+							return console;
+						if (method.getName().equals("executeTask"))
+							((Callable<?>)args[0]).call();
+						return null;
+					}
+				}));
+	}
+
+	@Test
+	public void testCoalesce() throws Exception {
+		setContext();
+		OrderTracker tracker = new OrderTracker();
+		StopQueue queue = new StopQueue(tracker);
+		OrderStage first = new OrderStage(), second = new OrderStage(), third = new OrderStage();
+
+		queue.submit(order, 1.2601d, 0d, first);		// sent at once
+		queue.submit(order, 1.2602d, 0d, second);		// replaced by the third
+		queue.submit(order, 1.2603d, 0d, third);
+		assertEquals(1, sent);
+		assertFalse(second.isDone());
+
+		tracker.onMessage(changed);
+		assertSame(order, first.get(0L, TimeUnit.MILLISECONDS));
+		assertEquals(2, sent);
+		assertEquals(1.2603d, stop, 1e-9);
+
+		tracker.onMessage(changed);
+		assertSame(order, second.get(0L, TimeUnit.MILLISECONDS));
+		assertSame(order, third.get(0L, TimeUnit.MILLISECONDS));
+		assertEquals(2L, queue.getSentCount());
+		assertEquals(1L, queue.getCoalescedCount());
+	}
+
+	@Test
+	public void testSkipNoOp() throws Exception {
+		setContext();
+		StopQueue queue = new StopQueue(new OrderTracker());
+		OrderStage result = new OrderStage();
+		queue.submit(order, 1.250001d, 0d, result);		// same after rounding
+		assertSame(order, result.get(0L, TimeUnit.MILLISECONDS));
+		assertEquals(0, sent);
+		assertEquals(1L, queue.getSkippedCount());
+	}
+
+	@Test
+	public void testUncheckedFailureFreesSlot() throws Exception {
+		setContext();
+		OrderTracker tracker = new OrderTracker();
+		StopQueue queue = new StopQueue(tracker);
+		OrderStage failed = new OrderStage(), next = new OrderStage();
+
+		isBroken = true;
+		queue.submit(order, 1.2601d, 0d, failed);
+		assertNull(failed.get(0L, TimeUnit.MILLISECONDS));
+
+		isBroken = false;
+		queue.submit(order, 1.2602d, 0d, next);		// not coalesced behind the failure
+		assertEquals(1, sent);
+		tracker.onMessage(changed);
+		assertSame(order, next.get(0L, TimeUnit.MILLISECONDS));
+		assertEquals(0L, queue.getCoalescedCount());
+	}
+}
@@ -0,0 +1,177 @@
+package com.quantisan.JFUtil;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+import com.dukascopy.api.IConsole;
+import com.dukascopy.api.IContext;
+import com.dukascopy.api.IOrder;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.JFException;
+
+public class TrailingEngineTest {
+
+	private static class MockOrder implements InvocationHandler {
+		private final String label;
+		private final boolean isLong;
+		private double stop, trailStep;
+		private int sent;
+		private boolean isRejecting;
+
+		MockOrder(String label, boolean isLong, double stop) {
+			this.label = label;
+			this.isLong = isLong;
+			this.stop = stop;
+		}
+
+		IOrder proxy() {
+			return (IOrder)Proxy.newProxyInstance(IOrder.class.getClassLoader(),
+					new Class<?>[] { IOrder.class }, this);
+		}
+
+		@Override public Object invoke(Object proxy, Method method, Object[] args)
+				throws JFException {
+			String name = method.getName();
+			if (name.equals("getLabel"))			return label;
+			if (name.equals("getInstrument"))		return Instrument.EURUSD;
+			if (name.equals("getState"))			return IOrder.State.FILLED;
+			if (name.equals("isLong"))				return isLong;
+			if (name.equals("getStopLossPrice"))	return stop;
+			if (name.equals("getTrailingStep"))		return trailStep;
+			if (name.equals("setStopLossPrice")) {
+				sent++;
+				if (isRejecting)
+					throw new JFException("rejected");
+				stop = (Double)args[0];
+			}
+			return null;
+		}
+	}
+
+	private static ITick tick(final double bid, final double ask) {
+		return (ITick)Proxy.newProxyInstance(ITick.class.getClassLoader(),
+				new Class<?>[] { ITick.class }, new InvocationHandler() {
+					@Override public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getBid"))	return bid;
+						if (method.getName().equals("getAsk"))	return ask;
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * runs tasks at once on the calling thread
+	 */
+	private static void setContext() {
+		final IConsole console = (IConsole)Proxy.newProxyInstance(IConsole.class.getClassLoader(),
+				new Class<?>[] { IConsole.class }, new InvocationHandler() {
+					@Override public Object invoke(Object proxy, Method method, Object[] args) {
+						return method.getName().equals("getErr") ? System.err : System.out;
+					}
+				});
+		JForexContext.setContext((IContext)Proxy.newProxyInstance(IContext.class.getClassLoader(),
+				new Class<?>[] { IContext.class }, new InvocationHandler() {
+					@Override public Object invoke(Object proxy, Method method, Object[] args)
+							throws Exception {
+						if (method.getName().equals("executeTask"))
+							((Callable<?>)args[0]).call();
+						return method.getName().equals("getConsole") ? console : null;
+					}
+				}));
+	}
+
+	@Test
+	public void testRatchet() {
+		setContext();
+		TrailingEngine engine = new TrailingEngine();
+		MockOrder buy = new MockOrder("trailBuy", true, 1.25d);
+		MockOrder sell = new MockOrder("trailSell", false, 1.25026d);
+		engine.trail(buy.proxy(), 1d, 0.5d);		// sub-pip step
+		engine.trail(sell.proxy(), 1d, 0.5d);
+
+		engine.onTick(Instrument.EURUSD, tick(1.25014d, 1.25016d));	// below step
+		assertEquals(0L, engine.getModificationCount());
+
+		engine.onTick(Instrument.EURUSD, tick(1.2511d, 1.25112d));
+		assertEquals(1, buy.sent);
+		assertEquals(1.2510d, buy.stop, 1e-9);
+		assertEquals(0, sell.sent);
+
+		engine.onTick(Instrument.EURUSD, tick(1.25d, 1.25002d));
+		assertEquals(1, sell.sent);
+		assertEquals(1.25012d, sell.stop, 1e-9);
+		assertEquals(2L, engine.getModificationCount());
+	}
+
+	@Test
+	public void testManyOrders() {
+		setContext();
+		TrailingEngine engine = new TrailingEngine();
+		MockOrder[] orders = new MockOrder[5000];
+		for (int i = 0; i < orders.length; i++) {
+			orders[i] = new MockOrder("many" + i, true, 1.2d + i * 1e-5);
+			engine.trail(orders[i].proxy(), 2d, 0.1d);
+		}
+		for (int i = 0; i < orders.length; i += 2)		// lazily deleted
+			assertTrue(engine.remove("many" + i));
+		assertEquals(orders.length / 2, engine.size());
+
+		// moves every order whose trigger at stop + 2.1 pips is reached
+		engine.onTick(Instrument.EURUSD, tick(1.2d + 1000 * 1e-5, 1.2d + 1001 * 1e-5));
+		int moved = 0;
+		for (int i = 0; i < orders.length; i++) {
+			if (orders[i].sent > 0) {
+				assertTrue(i % 2 == 1 && i <= 1000 - 21);
+				moved++;
+			}
+		}
+		assertEquals(490, moved);
+		assertEquals(490L, engine.getModificationCount());
+	}
+
+	@Test
+	public void testRetryRejected() {
+		setContext();
+		TrailingEngine engine = new TrailingEngine();
+		MockOrder buy = new MockOrder("trailRejected", true, 1.25d);
+		engine.trail(buy.proxy(), 1d, 0.5d);
+
+		buy.isRejecting = true;
+		engine.onTick(Instrument.EURUSD, tick(1.2511d, 1.25112d));
+		assertEquals(1, buy.sent);
+		assertEquals(1.25d, buy.stop, 1e-9);
+
+		buy.isRejecting = false;		// same tick, fell back to the order's stop
+		engine.onTick(Instrument.EURUSD, tick(1.2511d, 1.25112d));
+		assertEquals(2, buy.sent);
+		assertEquals(1.2510d, buy.stop, 1e-9);
+	}
+
+	@Test
+	public void testTrailingStep() {
+		setContext();
+		TrailingEngine engine = new TrailingEngine();
+		MockOrder broker = new MockOrder("brokerTrailed", true, 1.25d);
+		broker.trailStep = 20d;
+		try {
+			engine.trail(broker.proxy(), 1d, 0.5d);
+			fail("trailing step would be cleared");
+		} catch (IllegalArgumentException ex) {
+			assertEquals(0, engine.size());
+		}
+
+		MockOrder buy = new MockOrder("trailStepLater", true, 1.25d);
+		engine.trail(buy.proxy(), 1d, 0.5d);
+		buy.trailStep = 20d;
+		engine.onTick(Instrument.EURUSD, tick(1.2511d, 1.25112d));
+		assertEquals(0, buy.sent);
+		assertEquals(0, engine.size());
+	}
+}
@@ -11,6 +11,8 @@ import com.quantisan.JFUtil.IndicatorBean.*;
 
 @Library("JFQuantisan.jar")		// place this file in your ../JForex/Strategy/files folder
 public class jfutilDemo implements IStrategy {	
+	private IndicatorSpec emaSpec;
+	
 	@Override
 	public void onStart(IContext context) throws JFException {
 		// ** Essential steps **
@@ -25,6 +27,15 @@ public class jfutilDemo implements IStrategy {
 		Pairer.subscribeTransitionalInstruments(set);
 		// ** End of essential steps **
 		
+		// build indicator parameters once, not on every bar
+		// get an EMA indicator by building an indicator bean
+		MovingAverage maBean = IndicatorBeanFactory.getMovingAverage();
+		// then sets its parameters with obvious method names
+		emaSpec = maBean.setAppliedPrice(IIndicators.AppliedPrice.MEDIAN_PRICE)
+						.setMAType(IIndicators.MaType.EMA)
+						.setWidth(14)		// all of these are optional parameters
+						.toSpec();			// immutable snapshot, safe to share
+		
 		Printer.println("-- Quantisan.com JFUtil v2.0 alpha: Usage demo --");
 		Printer.println("");
 	}
@@ -32,6 +43,9 @@ public class jfutilDemo implements IStrategy {
 	@Override
 	public void onBar(Instrument instrument, Period period, IBar askBar,
 			IBar bidBar) throws JFException {	
+		// keep recent bars in primitive columns, see Barer.getPrices
+		BarStore.onBar(instrument, period, askBar, bidBar);
+		
 		if (period != Period.TEN_SECS || instrument != Instrument.EURUSD) 
 			return;		// skipping most periods and instruments
 		
@@ -39,14 +53,8 @@ public class jfutilDemo implements IStrategy {
 		//Printer.println("Account equity = " + JForexAccount.getEquity());		
 
 		// *** 2. simpler indicator use with intuitive method calls ***
-		// get an EMA indicator value by building an indicator bean
-		MovingAverage maBean = IndicatorBeanFactory.getMovingAverage();
-		// then sets its parameters with obvious method names
-		maBean.setAppliedPrice(IIndicators.AppliedPrice.MEDIAN_PRICE)
-				.setMAType(IIndicators.MaType.EMA)
-				.setWidth(14);		// all of these are optional parameters	
-		// feed the bean into a generic calculation method to get the result
-		double ema = Indicating.calculate(instrument, Period.ONE_MIN, maBean);		
+		// feed the spec built in onStart into a generic calculation method to get the result
+		double ema = Indicating.calculate(instrument, Period.ONE_MIN, emaSpec);		
 		
 		// printing the EMA value
 		Printer.println(instrument.toString() + " EMA = " + ema);	
@@ -85,7 +93,8 @@ public class jfutilDemo implements IStrategy {
 										.setTakeProfitPrice(targetPrice) // set target
 										.build();
 		// ** 5. Single method to placing orders for all order types and parameters ***
-		Orderer.placeOrder(buySpTicket);	
+		// then trail the stop once filled, chained on order events without blocking
+		Orderer.placeOrder(buySpTicket).thenTrail(20d);	
 	}
 
 	@Override
@@ -107,10 +116,22 @@ public class jfutilDemo implements IStrategy {
 	
 	@Override
 	public void onTick(Instrument instrument, ITick tick) throws JFException {
+		// keep conversion rates current for lot sizing
+		Pairer.onTick(instrument, tick);
+		// estimate equity between account updates for the drawdown check
+		JForexAccount.onTick(instrument, tick);
+		// move the stops of orders trailed on the client
+		Orderer.onTick(instrument, tick);
+		// answer cached indicators of the current bar without history calls
+		Indicating.onTick(instrument, tick);
 	}
 
 	@Override
 	public void onMessage(IMessage message) throws JFException {
+		// keep the amount at risk current without scanning orders
+		JForexAccount.onMessage(message);
+		// complete pending stop loss changes as soon as the order is filled
+		Orderer.onMessage(message);
 	}
 
 